@@ -0,0 +1,152 @@
+package org.traccar.database;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.traccar.Context;
+import org.traccar.model.Position;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class QueryBuilderBenchmark {
+
+    private static final int ROWS = 100000;
+
+    private static final String QUERY = "SELECT * FROM tc_positions";
+
+    private JdbcDataSource dataSource;
+    private Connection keepAlive;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Context.init(null, null);
+
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:benchmark");
+        keepAlive = dataSource.getConnection();
+
+        try (Statement statement = keepAlive.createStatement()) {
+            statement.execute("CREATE TABLE tc_positions ("
+                    + "id INT PRIMARY KEY AUTO_INCREMENT, protocol VARCHAR(128), deviceId INT NOT NULL, "
+                    + "serverTime TIMESTAMP, deviceTime TIMESTAMP, fixTime TIMESTAMP, valid BOOLEAN, "
+                    + "latitude DOUBLE, longitude DOUBLE, altitude FLOAT, speed FLOAT, course FLOAT, "
+                    + "address VARCHAR(512), attributes VARCHAR(4000), accuracy DOUBLE, network VARCHAR(4000))");
+        }
+
+        try (PreparedStatement statement = keepAlive.prepareStatement("INSERT INTO tc_positions "
+                + "(protocol, deviceId, serverTime, deviceTime, fixTime, valid, latitude, longitude, altitude, "
+                + "speed, course, attributes, accuracy) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            long time = System.currentTimeMillis();
+            for (int i = 0; i < ROWS; i++) {
+                Timestamp timestamp = new Timestamp(time + i * 10000L);
+                statement.setString(1, "osmand");
+                statement.setLong(2, 1);
+                statement.setTimestamp(3, timestamp);
+                statement.setTimestamp(4, timestamp);
+                statement.setTimestamp(5, timestamp);
+                statement.setBoolean(6, true);
+                statement.setDouble(7, 50 + i * 0.0001);
+                statement.setDouble(8, 10 + i * 0.0001);
+                statement.setDouble(9, 100);
+                statement.setDouble(10, i % 60);
+                statement.setDouble(11, i % 360);
+                statement.setString(12, "{\"ignition\":true,\"odometer\":" + i + "}");
+                statement.setDouble(13, 5);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        keepAlive.close();
+    }
+
+    @Benchmark
+    public Collection<Position> rowMapper() throws Exception {
+        return QueryBuilder.create(dataSource, QUERY).executeQuery(Position.class);
+    }
+
+    @Benchmark
+    public Collection<Position> reflection() throws Exception {
+        List<Position> result = new LinkedList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(QUERY);
+             ResultSet resultSet = statement.executeQuery()) {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            List<Method> setters = new LinkedList<>();
+            for (Method method : Position.class.getMethods()) {
+                if (method.getName().startsWith("set") && method.getParameterTypes().length == 1
+                        && !method.isAnnotationPresent(QueryIgnore.class)) {
+                    for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                        if (method.getName().substring(3).equalsIgnoreCase(metaData.getColumnLabel(i))) {
+                            setters.add(method);
+                            break;
+                        }
+                    }
+                }
+            }
+            while (resultSet.next()) {
+                Position position = Position.class.getDeclaredConstructor().newInstance();
+                for (Method method : setters) {
+                    String name = method.getName().substring(3);
+                    Class<?> type = method.getParameterTypes()[0];
+                    if (type.equals(boolean.class)) {
+                        method.invoke(position, resultSet.getBoolean(name));
+                    } else if (type.equals(int.class)) {
+                        method.invoke(position, resultSet.getInt(name));
+                    } else if (type.equals(long.class)) {
+                        method.invoke(position, resultSet.getLong(name));
+                    } else if (type.equals(double.class)) {
+                        method.invoke(position, resultSet.getDouble(name));
+                    } else if (type.equals(String.class)) {
+                        method.invoke(position, resultSet.getString(name));
+                    } else if (type.equals(Date.class)) {
+                        Timestamp timestamp = resultSet.getTimestamp(name);
+                        if (timestamp != null) {
+                            method.invoke(position, new Date(timestamp.getTime()));
+                        }
+                    } else if (type.equals(byte[].class)) {
+                        method.invoke(position, resultSet.getBytes(name));
+                    } else {
+                        String value = resultSet.getString(name);
+                        if (value != null && !value.isEmpty()) {
+                            method.invoke(position, Context.getObjectMapper().readValue(value, type));
+                        }
+                    }
+                }
+                result.add(position);
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,72 @@
+package org.traccar.geofence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GeofencePolygonBenchmark {
+
+    private static final int POINTS = 1024;
+
+    @Param({"10", "20000"})
+    private int vertices;
+
+    private GeofencePolygon polygon;
+
+    private double[] latitudes;
+    private double[] longitudes;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Random random = new Random(1);
+
+        StringBuilder wkt = new StringBuilder("POLYGON ((");
+        for (int i = 0; i < vertices; i++) {
+            double angle = 2 * Math.PI * i / vertices;
+            double radius = 0.8 + random.nextDouble() * 0.2;
+            if (i > 0) {
+                wkt.append(", ");
+            }
+            wkt.append(50 + radius * Math.sin(angle)).append(' ').append(10 + radius * Math.cos(angle));
+        }
+        wkt.append("))");
+        polygon = new GeofencePolygon(wkt.toString());
+
+        latitudes = new double[POINTS];
+        longitudes = new double[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            latitudes[i] = 50 + (random.nextDouble() - 0.5) * 4;
+            longitudes[i] = 10 + (random.nextDouble() - 0.5) * 4;
+        }
+    }
+
+    @Benchmark
+    public int containsPoint() {
+        int count = 0;
+        for (int i = 0; i < POINTS; i++) {
+            if (polygon.containsPoint(latitudes[i], longitudes[i])) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+}
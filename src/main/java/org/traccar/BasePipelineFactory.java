@@ -1,5 +1,5 @@
 /*
- * Copyright 2012 - 2020 Anton Tananaev (anton@traccar.org)
+ * Copyright 2012 - 2021 Anton Tananaev (anton@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -22,6 +22,7 @@ import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOutboundHandler;
 import io.netty.channel.ChannelPipeline;
 import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.EventExecutorGroup;
 import org.traccar.config.Keys;
 import org.traccar.handler.ComputedAttributesHandler;
 import org.traccar.handler.CopyAttributesHandler;
@@ -55,6 +56,7 @@ public abstract class BasePipelineFactory extends ChannelInitializer<Channel> {
 
     private final TrackerServer server;
     private final String protocol;
+    private final EventExecutorGroup processingGroup;
     private int timeout;
 
     public BasePipelineFactory(TrackerServer server, String protocol) {
@@ -64,15 +66,17 @@ public abstract class BasePipelineFactory extends ChannelInitializer<Channel> {
         if (timeout == 0) {
             timeout = Context.getConfig().getInteger(Keys.SERVER_TIMEOUT);
         }
+        processingGroup = EventLoopGroupFactory.getProcessingGroup();
     }
 
     protected abstract void addProtocolHandlers(PipelineBuilder pipeline);
 
     @SafeVarargs
-    private final void addHandlers(ChannelPipeline pipeline, Class<? extends ChannelHandler>... handlerClasses) {
+    private final void addHandlers(
+            ChannelPipeline pipeline, EventExecutorGroup group, Class<? extends ChannelHandler>... handlerClasses) {
         for (Class<? extends ChannelHandler> handlerClass : handlerClasses) {
             if (handlerClass != null) {
-                pipeline.addLast(Main.getInjector().getInstance(handlerClass));
+                pipeline.addLast(group, Main.getInjector().getInstance(handlerClass));
             }
         }
     }
@@ -116,12 +120,20 @@ public abstract class BasePipelineFactory extends ChannelInitializer<Channel> {
 
         addHandlers(
                 pipeline,
+                null,
                 TimeHandler.class,
                 GeolocationHandler.class,
                 HemisphereHandler.class,
                 DistanceHandler.class,
                 RemoteAddressHandler.class,
-                FilterHandler.class,
+                FilterHandler.class);
+
+        // datagram server has a single channel, so all its devices would share one processing thread
+        EventExecutorGroup group = server.isDatagram() ? null : processingGroup;
+
+        addHandlers(
+                pipeline,
+                group,
                 GeocoderHandler.class,
                 SpeedLimitHandler.class,
                 MotionHandler.class,
@@ -140,7 +152,7 @@ public abstract class BasePipelineFactory extends ChannelInitializer<Channel> {
                 MaintenanceEventHandler.class,
                 DriverEventHandler.class);
 
-        pipeline.addLast(new MainEventHandler());
+        pipeline.addLast(group, new MainEventHandler());
     }
 
 }
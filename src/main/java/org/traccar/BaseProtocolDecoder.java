@@ -1,5 +1,5 @@
 /*
- * Copyright 2012 - 2020 Anton Tananaev (anton@traccar.org)
+ * Copyright 2012 - 2021 Anton Tananaev (anton@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,13 +15,14 @@
  */
 package org.traccar;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import io.netty.channel.Channel;
 import io.netty.channel.socket.DatagramChannel;
 import io.netty.handler.codec.http.HttpRequestDecoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.traccar.config.Config;
-import org.traccar.config.Keys;
 import org.traccar.database.CommandsManager;
 import org.traccar.database.ConnectionManager;
 import org.traccar.database.IdentityManager;
@@ -35,11 +36,10 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 
 public abstract class BaseProtocolDecoder extends ExtendedObjectDecoder {
 
@@ -53,17 +53,45 @@ public abstract class BaseProtocolDecoder extends ExtendedObjectDecoder {
     private final StatisticsManager statisticsManager;
     private final Protocol protocol;
 
+    private ProtocolSettings settings;
+
+    private Channel httpCheckedChannel;
+    private boolean httpChannel;
+
     public BaseProtocolDecoder(Protocol protocol) {
         this.protocol = protocol;
         statisticsManager = Main.getInjector() != null ? Main.getInjector().getInstance(StatisticsManager.class) : null;
     }
 
+    protected ProtocolSettings getSettings() {
+        ProtocolSettings result = settings;
+        if (result == null || !result.isCurrent()) {
+            result = ProtocolSettings.get(config, getProtocolName());
+            settings = result;
+        }
+        return result;
+    }
+
+    /**
+     * Pipeline of a channel doesn't change, so the result is cached for the last checked channel.
+     */
+    private boolean isHttpChannel(Channel channel) {
+        if (channel == null) {
+            return false;
+        }
+        if (channel != httpCheckedChannel) {
+            httpChannel = BasePipelineFactory.getHandler(channel.pipeline(), HttpRequestDecoder.class) != null;
+            httpCheckedChannel = channel;
+        }
+        return httpChannel;
+    }
+
     public String getProtocolName() {
         return protocol != null ? protocol.getName() : PROTOCOL_UNKNOWN;
     }
 
     public String getServer(Channel channel, char delimiter) {
-        String server = config.getString(Keys.PROTOCOL_SERVER.withPrefix(getProtocolName()));
+        String server = getSettings().getServer();
         if (server == null && channel != null) {
             InetSocketAddress address = (InetSocketAddress) channel.localAddress();
             server = address.getAddress().getHostAddress() + ":" + address.getPort();
@@ -72,7 +100,8 @@ public abstract class BaseProtocolDecoder extends ExtendedObjectDecoder {
     }
 
     protected double convertSpeed(double value, String defaultUnits) {
-        switch (config.getString(getProtocolName() + ".speed", defaultUnits)) {
+        String units = getSettings().getSpeedUnits();
+        switch (units != null ? units : defaultUnits) {
             case "kmh":
                 return UnitsConverter.knotsFromKph(value);
             case "mps":
@@ -98,8 +127,52 @@ public abstract class BaseProtocolDecoder extends ExtendedObjectDecoder {
         return result;
     }
 
+    private static final class AddressSession {
+
+        private final DeviceSession deviceSession;
+        private final String uniqueId;
+
+        private AddressSession(DeviceSession deviceSession, String uniqueId) {
+            this.deviceSession = deviceSession;
+            this.uniqueId = uniqueId;
+        }
+
+    }
+
     private DeviceSession channelDeviceSession; // connection-based protocols
-    private final Map<SocketAddress, DeviceSession> addressDeviceSessions = new HashMap<>(); // connectionless protocols
+    private Cache<SocketAddress, AddressSession> addressDeviceSessions; // connectionless protocols
+
+    private synchronized Cache<SocketAddress, AddressSession> getAddressDeviceSessions() {
+        if (addressDeviceSessions == null) {
+            addressDeviceSessions = CacheBuilder.newBuilder()
+                    .maximumSize(getSettings().getSessionsCacheSize())
+                    .expireAfterAccess(getSettings().getSessionsCacheTimeout(), TimeUnit.SECONDS)
+                    .build();
+        }
+        return addressDeviceSessions;
+    }
+
+    /**
+     * Cached session can be reused without device lookup if the message has no identifier or has the same one.
+     */
+    private DeviceSession getCachedSession(AddressSession addressSession, String... uniqueIds) {
+        if (addressSession != null) {
+            if (uniqueIds.length == 0) {
+                return addressSession.deviceSession;
+            }
+            for (String uniqueId : uniqueIds) {
+                if (addressSession.uniqueId.equals(uniqueId)) {
+                    Device device = identityManager.getById(addressSession.deviceSession.getDeviceId());
+                    if (device != null && !device.getDisabled()
+                            && addressSession.uniqueId.equals(device.getUniqueId())) {
+                        return addressSession.deviceSession;
+                    }
+                    break;
+                }
+            }
+        }
+        return null;
+    }
 
     private long findDeviceId(SocketAddress remoteAddress, String... uniqueIds) {
         if (uniqueIds.length > 0) {
@@ -118,7 +191,7 @@ public abstract class BaseProtocolDecoder extends ExtendedObjectDecoder {
             } catch (Exception e) {
                 LOGGER.warn("Find device error", e);
             }
-            if (deviceId == 0 && config.getBoolean(Keys.DATABASE_REGISTER_UNKNOWN)) {
+            if (deviceId == 0 && getSettings().getRegisterUnknown()) {
                 return identityManager.addUnknownDevice(uniqueIds[0]);
             }
             if (device != null && !device.getDisabled()) {
@@ -147,9 +220,7 @@ public abstract class BaseProtocolDecoder extends ExtendedObjectDecoder {
 
     public DeviceSession getDeviceSession(
             Channel channel, SocketAddress remoteAddress, boolean ignoreCache, String... uniqueIds) {
-        if (channel != null && BasePipelineFactory.getHandler(channel.pipeline(), HttpRequestDecoder.class) != null
-                || ignoreCache || config.getBoolean(Keys.PROTOCOL_IGNORE_SESSIONS_CACHE.withPrefix(getProtocolName()))
-                || config.getBoolean(Keys.DECODER_IGNORE_SESSIONS_CACHE)) {
+        if (ignoreCache || getSettings().getIgnoreSessionsCache() || isHttpChannel(channel)) {
             long deviceId = findDeviceId(remoteAddress, uniqueIds);
             if (deviceId != 0) {
                 if (connectionManager != null) {
@@ -161,13 +232,21 @@ public abstract class BaseProtocolDecoder extends ExtendedObjectDecoder {
             }
         }
         if (channel instanceof DatagramChannel) {
-            long deviceId = findDeviceId(remoteAddress, uniqueIds);
-            DeviceSession deviceSession = addressDeviceSessions.get(remoteAddress);
-            if (deviceSession != null && (deviceSession.getDeviceId() == deviceId || uniqueIds.length == 0)) {
+            Cache<SocketAddress, AddressSession> sessions = getAddressDeviceSessions();
+            DeviceSession deviceSession = getCachedSession(sessions.getIfPresent(remoteAddress), uniqueIds);
+            if (statisticsManager != null) {
+                statisticsManager.registerSessionCache(deviceSession != null);
+            }
+            if (deviceSession != null) {
                 return deviceSession;
-            } else if (deviceId != 0) {
+            }
+            long deviceId = findDeviceId(remoteAddress, uniqueIds);
+            if (deviceId != 0) {
                 deviceSession = new DeviceSession(deviceId);
-                addressDeviceSessions.put(remoteAddress, deviceSession);
+                Device device = identityManager.getById(deviceId);
+                if (device != null) {
+                    sessions.put(remoteAddress, new AddressSession(deviceSession, device.getUniqueId()));
+                }
                 if (connectionManager != null) {
                     connectionManager.addActiveDevice(deviceId, protocol, channel, remoteAddress);
                 }
@@ -256,7 +335,7 @@ public abstract class BaseProtocolDecoder extends ExtendedObjectDecoder {
     @Override
     protected Object handleEmptyMessage(Channel channel, SocketAddress remoteAddress, Object msg) {
         DeviceSession deviceSession = getDeviceSession(channel, remoteAddress);
-        if (config.getBoolean(Keys.DATABASE_SAVE_EMPTY) && deviceSession != null) {
+        if (getSettings().getSaveEmpty() && deviceSession != null) {
             Position position = new Position(getProtocolName());
             position.setDeviceId(deviceSession.getDeviceId());
             getLastLocation(position, null);
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 - 2020 Anton Tananaev (anton@traccar.org)
+ * Copyright 2015 - 2021 Anton Tananaev (anton@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -56,6 +56,8 @@ import org.traccar.model.Notification;
 import org.traccar.model.User;
 import org.traccar.notification.EventForwarder;
 import org.traccar.notification.NotificatorManager;
+import org.traccar.notification.TemplateRegistry;
+import org.traccar.reports.ReportExecutor;
 import org.traccar.reports.model.TripsConfig;
 import org.traccar.schedule.ScheduleManager;
 import org.traccar.sms.HttpSmsClient;
@@ -199,6 +201,12 @@ public final class Context {
         return velocityEngine;
     }
 
+    private static TemplateRegistry templateRegistry;
+
+    public static TemplateRegistry getTemplateRegistry() {
+        return templateRegistry;
+    }
+
     private static Client client = ClientBuilder.newClient();
 
     public static Client getClient() {
@@ -241,6 +249,12 @@ public final class Context {
         return smsManager;
     }
 
+    private static ReportExecutor reportExecutor;
+
+    public static ReportExecutor getReportExecutor() {
+        return reportExecutor;
+    }
+
     private static TripsConfig tripsConfig;
 
     public static TripsConfig getTripsConfig() {
@@ -298,24 +312,43 @@ public final class Context {
 
         mediaManager = new MediaManager(config.getString(Keys.MEDIA_PATH));
 
-        if (dataManager != null) {
-            usersManager = new UsersManager(dataManager);
-            groupsManager = new GroupsManager(dataManager);
-            deviceManager = new DeviceManager(dataManager);
-        }
+        try (StartupLoader loader = new StartupLoader()) {
+
+            if (dataManager != null) {
+                loader.begin("identity caches");
+                loader.submit("users", () -> usersManager = new UsersManager(dataManager));
+                loader.submit("groups", () -> groupsManager = new GroupsManager(dataManager));
+                loader.submit("devices", () -> deviceManager = new DeviceManager(dataManager));
+                loader.await();
+            }
+
+            identityManager = deviceManager;
+
+            loader.begin("permissions and objects");
+            loader.submit("permissions", () -> permissionsManager = new PermissionsManager(dataManager, usersManager));
+            loader.submit("geofences", () -> geofenceManager = new GeofenceManager(dataManager));
+            loader.submit("calendars", () -> calendarManager = new CalendarManager(dataManager));
+            loader.submit("maintenances", () -> maintenancesManager = new MaintenancesManager(dataManager));
+            loader.submit("notifications", () -> notificationManager = new NotificationManager(dataManager));
+            loader.submit("attributes", () -> attributesManager = new AttributesManager(dataManager));
+            loader.submit("drivers", () -> driversManager = new DriversManager(dataManager));
+            loader.submit("commands", () -> commandsManager = new CommandsManager(
+                    dataManager, config.getBoolean(Keys.COMMANDS_QUEUEING)));
+            loader.await();
 
-        identityManager = deviceManager;
+        }
 
         if (config.hasKey(Keys.WEB_PORT)) {
             webServer = new WebServer(config);
         }
 
-        permissionsManager = new PermissionsManager(dataManager, usersManager);
-
         connectionManager = new ConnectionManager();
 
         tripsConfig = initTripsConfig();
 
+        reportExecutor = new ReportExecutor(
+                config.getInteger(Keys.REPORT_THREADS), config.getInteger(Keys.REPORT_USER_THREADS));
+
         if (config.hasKey(Keys.SMS_HTTP_URL)) {
             smsManager = new HttpSmsClient();
         } else if (config.hasKey(Keys.SMS_AWS_REGION)) {
@@ -331,20 +364,10 @@ public final class Context {
             eventForwarder = new EventForwarder();
         }
 
-        attributesManager = new AttributesManager(dataManager);
-
-        driversManager = new DriversManager(dataManager);
-
-        commandsManager = new CommandsManager(dataManager, config.getBoolean(Keys.COMMANDS_QUEUEING));
-
     }
 
     private static void initEventsModule() {
 
-        geofenceManager = new GeofenceManager(dataManager);
-        calendarManager = new CalendarManager(dataManager);
-        maintenancesManager = new MaintenancesManager(dataManager);
-        notificationManager = new NotificationManager(dataManager);
         notificatorManager = new NotificatorManager();
         Properties velocityProperties = new Properties();
         velocityProperties.setProperty("file.resource.loader.path",
@@ -365,6 +388,7 @@ public final class Context {
 
         velocityEngine = new VelocityEngine();
         velocityEngine.init(velocityProperties);
+        templateRegistry = new TemplateRegistry(velocityEngine);
     }
 
     public static void init(IdentityManager testIdentityManager, MediaManager testMediaManager) {
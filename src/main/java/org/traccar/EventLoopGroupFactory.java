@@ -1,5 +1,5 @@
 /*
- * Copyright 2012 - 2018 Anton Tananaev (anton@traccar.org)
+ * Copyright 2012 - 2021 Anton Tananaev (anton@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,11 +17,16 @@ package org.traccar;
 
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutorGroup;
+import org.traccar.config.Keys;
 
 public final class EventLoopGroupFactory {
 
     private static EventLoopGroup bossGroup = new NioEventLoopGroup();
     private static EventLoopGroup workerGroup = new NioEventLoopGroup();
+    private static EventExecutorGroup processingGroup;
+    private static boolean processingGroupInitialized;
 
     private EventLoopGroupFactory() {
     }
@@ -34,4 +39,15 @@ public final class EventLoopGroupFactory {
         return workerGroup;
     }
 
+    public static synchronized EventExecutorGroup getProcessingGroup() {
+        if (!processingGroupInitialized) {
+            int threads = Context.getConfig().getInteger(Keys.PROCESSING_THREADS);
+            if (threads > 0) {
+                processingGroup = new DefaultEventExecutorGroup(threads);
+            }
+            processingGroupInitialized = true;
+        }
+        return processingGroup;
+    }
+
 }
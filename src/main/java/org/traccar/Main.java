@@ -1,5 +1,5 @@
 /*
- * Copyright 2012 - 2020 Anton Tananaev (anton@traccar.org)
+ * Copyright 2012 - 2021 Anton Tananaev (anton@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -20,6 +20,7 @@ import com.google.inject.Injector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.traccar.api.HealthCheckService;
+import org.traccar.database.BatchWriter;
 
 import java.io.File;
 import java.lang.management.ManagementFactory;
@@ -141,6 +142,18 @@ public final class Main {
                     Context.getWebServer().stop();
                 }
                 Context.getServerManager().stop();
+
+                BatchWriter batchWriter = injector.getInstance(BatchWriter.class);
+                if (batchWriter != null) {
+                    batchWriter.stop();
+                }
+
+                if (Context.getDeviceManager() != null) {
+                    Context.getDeviceManager().stopUpdates();
+                }
+                if (Context.getNotificationManager() != null) {
+                    Context.getNotificationManager().stopUpdates();
+                }
             }));
         } catch (Exception e) {
             LOGGER.error("Main method error", e);
@@ -1,5 +1,5 @@
 /*
- * Copyright 2018 - 2019 Anton Tananaev (anton@traccar.org)
+ * Copyright 2018 - 2021 Anton Tananaev (anton@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -22,6 +22,7 @@ import com.google.inject.Singleton;
 import org.traccar.config.Config;
 import org.traccar.config.Keys;
 import org.traccar.database.AttributesManager;
+import org.traccar.database.BatchWriter;
 import org.traccar.database.CalendarManager;
 import org.traccar.database.DataManager;
 import org.traccar.database.DeviceManager;
@@ -347,9 +348,24 @@ public class MainModule extends AbstractModule {
 
     @Singleton
     @Provides
-    public static DefaultDataHandler provideDefaultDataHandler(@Nullable DataManager dataManager) {
+    public static BatchWriter provideBatchWriter(Config config, @Nullable DataManager dataManager) {
+        if (dataManager != null && config.getBoolean(Keys.DATABASE_BATCH_ENABLE)) {
+            return new BatchWriter(
+                    dataManager, "position-writer",
+                    config.getInteger(Keys.DATABASE_BATCH_THREADS),
+                    config.getInteger(Keys.DATABASE_BATCH_SIZE),
+                    config.getLong(Keys.DATABASE_BATCH_INTERVAL),
+                    config.getInteger(Keys.DATABASE_BATCH_QUEUE_SIZE));
+        }
+        return null;
+    }
+
+    @Singleton
+    @Provides
+    public static DefaultDataHandler provideDefaultDataHandler(
+            @Nullable DataManager dataManager, @Nullable BatchWriter batchWriter) {
         if (dataManager != null) {
-            return new DefaultDataHandler(dataManager);
+            return new DefaultDataHandler(dataManager, batchWriter);
         }
         return null;
     }
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2021 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar;
+
+import org.traccar.config.Config;
+import org.traccar.config.Keys;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable snapshot of configuration values used by protocol decoders for every message. Snapshots are shared by
+ * all decoders of the same protocol and are created again when the configuration is replaced or modified.
+ */
+public final class ProtocolSettings {
+
+    private static final Map<String, ProtocolSettings> SETTINGS = new ConcurrentHashMap<>();
+
+    private final Config config;
+    private final int configVersion;
+
+    private final String server;
+    private final String speedUnits;
+    private final boolean ignoreSessionsCache;
+    private final int sessionsCacheSize;
+    private final long sessionsCacheTimeout;
+    private final boolean registerUnknown;
+    private final boolean saveEmpty;
+
+    @SuppressWarnings("deprecation")
+    private ProtocolSettings(Config config, String protocol) {
+        this.config = config;
+        configVersion = config.getVersion();
+        server = config.getString(Keys.PROTOCOL_SERVER.withPrefix(protocol));
+        String speedKey = protocol + ".speed";
+        speedUnits = config.hasKey(speedKey) ? config.getString(speedKey) : null;
+        ignoreSessionsCache = config.getBoolean(Keys.PROTOCOL_IGNORE_SESSIONS_CACHE.withPrefix(protocol))
+                || config.getBoolean(Keys.DECODER_IGNORE_SESSIONS_CACHE);
+        sessionsCacheSize = config.getInteger(Keys.DECODER_SESSIONS_CACHE_SIZE);
+        sessionsCacheTimeout = config.getLong(Keys.DECODER_SESSIONS_CACHE_TIMEOUT);
+        registerUnknown = config.getBoolean(Keys.DATABASE_REGISTER_UNKNOWN);
+        saveEmpty = config.getBoolean(Keys.DATABASE_SAVE_EMPTY);
+    }
+
+    public static ProtocolSettings get(Config config, String protocol) {
+        ProtocolSettings settings = SETTINGS.get(protocol);
+        if (settings == null || settings.config != config || !settings.isCurrent()) {
+            settings = new ProtocolSettings(config, protocol);
+            SETTINGS.put(protocol, settings);
+        }
+        return settings;
+    }
+
+    public boolean isCurrent() {
+        return configVersion == config.getVersion();
+    }
+
+    public String getServer() {
+        return server;
+    }
+
+    public String getSpeedUnits() {
+        return speedUnits;
+    }
+
+    public boolean getIgnoreSessionsCache() {
+        return ignoreSessionsCache;
+    }
+
+    public int getSessionsCacheSize() {
+        return sessionsCacheSize;
+    }
+
+    public long getSessionsCacheTimeout() {
+        return sessionsCacheTimeout;
+    }
+
+    public boolean getRegisterUnknown() {
+        return registerUnknown;
+    }
+
+    public boolean getSaveEmpty() {
+        return saveEmpty;
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2021 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs independent startup tasks in parallel. Tasks are grouped into phases and each phase waits for all its tasks,
+ * so later phases can rely on everything loaded before. Duration of every task and phase is logged.
+ */
+final class StartupLoader implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StartupLoader.class);
+
+    private final ExecutorService executor;
+
+    private final Map<String, Future<?>> tasks = new LinkedHashMap<>();
+    private String phase;
+    private long phaseStart;
+
+    StartupLoader() {
+        AtomicInteger index = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "startup-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void begin(String name) {
+        phase = name;
+        phaseStart = System.currentTimeMillis();
+        LOGGER.info("Loading {}...", name);
+    }
+
+    public void submit(String name, Runnable task) {
+        tasks.put(name, executor.submit(() -> {
+            long start = System.currentTimeMillis();
+            task.run();
+            LOGGER.info("Loaded {} in {} ms", name, System.currentTimeMillis() - start);
+        }));
+    }
+
+    public void await() throws Exception {
+        try {
+            for (Future<?> task : tasks.values()) {
+                task.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            tasks.clear();
+        }
+        LOGGER.info("Loaded {} in {} ms", phase, System.currentTimeMillis() - phaseStart);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+}
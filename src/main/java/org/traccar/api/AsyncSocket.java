@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 - 2016 Anton Tananaev (anton@traccar.org)
+ * Copyright 2015 - 2021 Anton Tananaev (anton@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,41 +17,52 @@ package org.traccar.api;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
 import org.eclipse.jetty.websocket.api.WebSocketAdapter;
+import org.eclipse.jetty.websocket.api.WriteCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.traccar.Context;
 import org.traccar.database.ConnectionManager;
-import org.traccar.model.Device;
-import org.traccar.model.Event;
 import org.traccar.model.Position;
 
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.Map;
-
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Every socket has its own outbound queue. Updates are only queued on the calling thread and the queue is drained on
+ * a shared executor with at most one message in flight, so a slow client delays only its own updates. Pending
+ * positions are coalesced, so only the latest position of each device is sent. Other updates can't be skipped
+ * without leaving the client in a stale state, so the socket is closed if too many of them are pending.
+ */
 public class AsyncSocket extends WebSocketAdapter implements ConnectionManager.UpdateListener {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AsyncSocket.class);
 
-    private static final String KEY_DEVICES = "devices";
-    private static final String KEY_POSITIONS = "positions";
-    private static final String KEY_EVENTS = "events";
+    private static final int MAX_PENDING_UPDATES = 1000;
 
     private final long userId;
+    private final Executor executor;
+
+    private final Queue<ConnectionManager.Update> pending = new ArrayDeque<>();
+    private final Map<Long, Position> pendingPositions = new LinkedHashMap<>();
+    private boolean sending;
 
-    public AsyncSocket(long userId) {
+    public AsyncSocket(long userId, Executor executor) {
         this.userId = userId;
+        this.executor = executor;
     }
 
     @Override
     public void onWebSocketConnect(Session session) {
         super.onWebSocketConnect(session);
 
-        Map<String, Collection<?>> data = new HashMap<>();
-        data.put(KEY_POSITIONS, Context.getDeviceManager().getInitialState(userId));
-        sendData(data);
+        enqueue(new ConnectionManager.Update(
+                ConnectionManager.Update.POSITIONS, Context.getDeviceManager().getInitialState(userId)));
 
         Context.getConnectionManager().addListener(userId, this);
     }
@@ -64,33 +75,94 @@ public class AsyncSocket extends WebSocketAdapter implements ConnectionManager.U
     }
 
     @Override
-    public void onUpdateDevice(Device device) {
-        Map<String, Collection<?>> data = new HashMap<>();
-        data.put(KEY_DEVICES, Collections.singletonList(device));
-        sendData(data);
+    public void onUpdate(ConnectionManager.Update update) {
+        if (ConnectionManager.Update.POSITIONS.equals(update.getKey())) {
+            boolean start;
+            synchronized (this) {
+                for (Object item : update.getItems()) {
+                    Position position = (Position) item;
+                    pendingPositions.remove(position.getDeviceId());
+                    pendingPositions.put(position.getDeviceId(), position);
+                }
+                start = startSending();
+            }
+            if (start) {
+                executor.execute(this::sendNext);
+            }
+        } else {
+            enqueue(update);
+        }
     }
 
-    @Override
-    public void onUpdatePosition(Position position) {
-        Map<String, Collection<?>> data = new HashMap<>();
-        data.put(KEY_POSITIONS, Collections.singletonList(position));
-        sendData(data);
+    private void enqueue(ConnectionManager.Update update) {
+        boolean overflow;
+        boolean start = false;
+        synchronized (this) {
+            overflow = pending.size() >= MAX_PENDING_UPDATES;
+            if (overflow) {
+                pending.clear();
+                pendingPositions.clear();
+            } else {
+                pending.add(update);
+                start = startSending();
+            }
+        }
+        if (overflow) {
+            LOGGER.warn("Too many pending updates for user {}, closing socket", userId);
+            if (isConnected()) {
+                getSession().close(StatusCode.TRY_AGAIN_LATER, "Too many pending updates");
+            }
+        } else if (start) {
+            executor.execute(this::sendNext);
+        }
     }
 
-    @Override
-    public void onUpdateEvent(Event event) {
-        Map<String, Collection<?>> data = new HashMap<>();
-        data.put(KEY_EVENTS, Collections.singletonList(event));
-        sendData(data);
+    private synchronized boolean startSending() {
+        if (sending) {
+            return false;
+        }
+        sending = true;
+        return true;
     }
 
-    private void sendData(Map<String, Collection<?>> data) {
-        if (!data.isEmpty() && isConnected()) {
-            try {
-                getRemote().sendString(Context.getObjectMapper().writeValueAsString(data), null);
-            } catch (JsonProcessingException e) {
-                LOGGER.warn("Socket JSON formatting error", e);
-            }
+    private synchronized ConnectionManager.Update nextUpdate() {
+        ConnectionManager.Update update = pending.poll();
+        if (update == null && !pendingPositions.isEmpty()) {
+            update = new ConnectionManager.Update(
+                    ConnectionManager.Update.POSITIONS, new ArrayList<>(pendingPositions.values()));
+            pendingPositions.clear();
+        }
+        if (update == null || !isConnected()) {
+            sending = false;
+            return null;
         }
+        return update;
     }
+
+    private void sendNext() {
+        ConnectionManager.Update update = nextUpdate();
+        if (update == null) {
+            return;
+        }
+        try {
+            getRemote().sendString(update.getJson(), new WriteCallback() {
+                @Override
+                public void writeSuccess() {
+                    executor.execute(AsyncSocket.this::sendNext);
+                }
+
+                @Override
+                public void writeFailed(Throwable error) {
+                    LOGGER.warn("Socket write error", error);
+                    synchronized (AsyncSocket.this) {
+                        sending = false;
+                    }
+                }
+            });
+        } catch (JsonProcessingException e) {
+            LOGGER.warn("Socket JSON formatting error", e);
+            executor.execute(this::sendNext);
+        }
+    }
+
 }
@@ -23,20 +23,44 @@ import org.traccar.config.Keys;
 
 import javax.servlet.http.HttpSession;
 import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class AsyncSocketServlet extends JettyWebSocketServlet {
 
+    private ExecutorService executor;
+
     @Override
     public void configure(JettyWebSocketServletFactory factory) {
+        int threads = Context.getConfig().getInteger(Keys.WEB_SOCKET_THREADS);
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        AtomicInteger index = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "websocket-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
         factory.setIdleTimeout(Duration.ofMillis(Context.getConfig().getLong(Keys.WEB_TIMEOUT)));
         factory.setCreator((req, resp) -> {
             if (req.getSession() != null) {
                 long userId = (Long) ((HttpSession) req.getSession()).getAttribute(SessionResource.USER_ID_KEY);
-                return new AsyncSocket(userId);
+                return new AsyncSocket(userId, executor);
             } else {
                 return null;
             }
         });
     }
 
+    @Override
+    public void destroy() {
+        super.destroy();
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2021 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.traccar.Context;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Writes stream elements as JSON array one by one, so large results never have to be kept in memory. Stream is
+ * closed after writing.
+ */
+public class JsonStreamingOutput implements StreamingOutput {
+
+    private final Stream<?> stream;
+
+    public JsonStreamingOutput(Stream<?> stream) {
+        this.stream = stream;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        ObjectWriter writer = Context.getObjectMapper().writer()
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try (Stream<?> objects = stream; JsonGenerator generator = writer.getFactory().createGenerator(output)) {
+            generator.writeStartArray();
+            Iterator<?> iterator = objects.iterator();
+            while (iterator.hasNext()) {
+                writer.writeValue(generator, iterator.next());
+            }
+            generator.writeEndArray();
+        }
+    }
+
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 - 2018 Anton Tananaev (anton@traccar.org)
+ * Copyright 2016 - 2021 Anton Tananaev (anton@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -32,6 +32,7 @@ import org.traccar.model.Event;
 import org.traccar.model.Notification;
 import org.traccar.model.Typed;
 import org.traccar.notification.MessageException;
+import org.traccar.notification.NotificationDispatcher;
 
 
 @Path("notifications")
@@ -55,6 +56,13 @@ public class NotificationResource extends ExtendedObjectResource<Notification> {
         return Context.getNotificatorManager().getAllNotificatorTypes();
     }
 
+    @GET
+    @Path("dispatchers")
+    public Collection<NotificationDispatcher> getDispatchers() {
+        Context.getPermissionsManager().checkAdmin(getUserId());
+        return Context.getNotificatorManager().getDispatchers();
+    }
+
     @POST
     @Path("test")
     public Response testMessage() throws MessageException, InterruptedException {
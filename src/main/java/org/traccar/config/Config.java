@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 - 2020 Anton Tananaev (anton@traccar.org)
+ * Copyright 2015 - 2021 Anton Tananaev (anton@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -29,6 +29,8 @@ public class Config {
 
     private boolean useEnvironmentVariables;
 
+    private volatile int version;
+
     public Config() {
     }
 
@@ -149,9 +151,17 @@ public class Config {
         }
     }
 
+    /**
+     * Incremented on every modification, so cached values derived from the configuration can be invalidated.
+     */
+    public int getVersion() {
+        return version;
+    }
+
     @VisibleForTesting
     public void setString(ConfigKey<?> key, String value) {
         properties.put(key.getKey(), value);
+        version += 1;
     }
 
     static String getEnvironmentVariableName(String key) {
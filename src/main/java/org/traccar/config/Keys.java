@@ -182,6 +182,24 @@ public final class Keys {
             "decoder.ignoreSessionCache",
             Collections.singletonList(KeyType.GLOBAL));
 
+    /**
+     * Maximum number of remote addresses kept in the session cache of each connectionless (UDP) server. Least recently
+     * used sessions are dropped first. Default value is 100000.
+     */
+    public static final ConfigKey<Integer> DECODER_SESSIONS_CACHE_SIZE = new ConfigKey<>(
+            "decoder.sessionsCacheSize",
+            Collections.singletonList(KeyType.GLOBAL),
+            100000);
+
+    /**
+     * Time in seconds after which an idle connectionless (UDP) session is dropped from the cache. Default value is one
+     * hour.
+     */
+    public static final ConfigKey<Long> DECODER_SESSIONS_CACHE_TIMEOUT = new ConfigKey<>(
+            "decoder.sessionsCacheTimeout",
+            Collections.singletonList(KeyType.GLOBAL),
+            3600L);
+
     /**
      * Server wide connection timeout value in seconds. See protocol timeout for more information.
      */
@@ -306,6 +324,32 @@ public final class Keys {
             "database.maxPoolSize",
             Collections.singletonList(KeyType.GLOBAL));
 
+    /**
+     * Number of prepared statements cached by the database driver for each connection. Currently applied to MySQL
+     * (client side cachePrepStmts) and PostgreSQL (preparedStatementCacheQueries) drivers. Driver default is used if
+     * not set.
+     */
+    public static final ConfigKey<Integer> DATABASE_STATEMENT_CACHE_SIZE = new ConfigKey<>(
+            "database.statementCacheSize",
+            Collections.singletonList(KeyType.GLOBAL));
+
+    /**
+     * Number of executions after which PostgreSQL driver switches to server side prepared statements. Driver default
+     * is used if not set.
+     */
+    public static final ConfigKey<Integer> DATABASE_PREPARE_THRESHOLD = new ConfigKey<>(
+            "database.prepareThreshold",
+            Collections.singletonList(KeyType.GLOBAL));
+
+    /**
+     * Number of rows fetched from the database at once when positions are streamed for reports and API. Default value
+     * is 1000. For MySQL, if the value is not set, rows are streamed one by one.
+     */
+    public static final ConfigKey<Integer> DATABASE_FETCH_SIZE = new ConfigKey<>(
+            "database.fetchSize",
+            Collections.singletonList(KeyType.GLOBAL),
+            1000);
+
     /**
      * SQL query to check connection status. Default value is 'SELECT 1'. For Oracle database you can use
      * 'SELECT 1 FROM DUAL'.
@@ -366,6 +410,61 @@ public final class Keys {
             "database.saveEmpty",
             Collections.singletonList(KeyType.GLOBAL));
 
+    /**
+     * Interval in milliseconds for writing latest position and device status updates. Only the last update of each
+     * device is written and all pending updates are stored in a single batch. By default updates are written
+     * immediately.
+     */
+    public static final ConfigKey<Long> DATABASE_DEVICE_UPDATE_INTERVAL = new ConfigKey<>(
+            "database.deviceUpdateInterval",
+            Collections.singletonList(KeyType.GLOBAL),
+            0L);
+
+    /**
+     * Store positions and events asynchronously in batches instead of inserting each of them on the network thread.
+     * Processing of a position continues once its batch is committed, so handlers still get the generated position id.
+     * Notifications are sent without waiting for the event batch and event id is set once the batch is committed.
+     * MySQL connections always use rewriteBatchedStatements, so a batch is sent to the database in one round trip.
+     */
+    public static final ConfigKey<Boolean> DATABASE_BATCH_ENABLE = new ConfigKey<>(
+            "database.batch.enable",
+            Collections.singletonList(KeyType.GLOBAL));
+
+    /**
+     * Maximum number of positions stored in a single batch. Default value is 100.
+     */
+    public static final ConfigKey<Integer> DATABASE_BATCH_SIZE = new ConfigKey<>(
+            "database.batch.size",
+            Collections.singletonList(KeyType.GLOBAL),
+            100);
+
+    /**
+     * Maximum time in milliseconds a position waits for its batch to fill up. Default value is 100 milliseconds.
+     */
+    public static final ConfigKey<Long> DATABASE_BATCH_INTERVAL = new ConfigKey<>(
+            "database.batch.interval",
+            Collections.singletonList(KeyType.GLOBAL),
+            100L);
+
+    /**
+     * Number of database writer threads. Positions of the same device are always stored by the same thread to keep
+     * the order. Default value is 2.
+     */
+    public static final ConfigKey<Integer> DATABASE_BATCH_THREADS = new ConfigKey<>(
+            "database.batch.threads",
+            Collections.singletonList(KeyType.GLOBAL),
+            2);
+
+    /**
+     * Number of pending positions per writer thread after which server stops reading from the connections that
+     * produce new positions. Reading resumes when the queue is half empty. Queue is limited to twice this size, and
+     * positions that are still arriving after that are stored directly, without batching. Default value is 10000.
+     */
+    public static final ConfigKey<Integer> DATABASE_BATCH_QUEUE_SIZE = new ConfigKey<>(
+            "database.batch.queueSize",
+            Collections.singletonList(KeyType.GLOBAL),
+            10000);
+
     /**
      * Device limit for self registered users. Default value is -1, which indicates no limit.
      */
@@ -524,6 +623,13 @@ public final class Keys {
             Collections.singletonList(KeyType.GLOBAL),
             60000L);
 
+    /**
+     * Number of threads sending updates to WebSocket clients. By default equals to the number of processors.
+     */
+    public static final ConfigKey<Integer> WEB_SOCKET_THREADS = new ConfigKey<>(
+            "web.socketThreads",
+            Collections.singletonList(KeyType.GLOBAL));
+
     /**
      * Authentication sessions timeout in seconds. By default no timeout.
      */
@@ -758,6 +864,58 @@ public final class Keys {
             "notificator.telegram.chatId",
             Collections.singletonList(KeyType.GLOBAL));
 
+    /**
+     * Number of threads sending notifications of each notificator type. Can be overridden for a specific type using
+     * 'notificator.{type}.threads' key. Default value is 4.
+     */
+    public static final ConfigKey<Integer> NOTIFICATOR_THREADS = new ConfigKey<>(
+            "notificator.threads",
+            Collections.singletonList(KeyType.GLOBAL),
+            4);
+
+    /**
+     * Maximum number of notifications waiting to be sent for each notificator type. Can be overridden for a specific
+     * type using 'notificator.{type}.queueSize' key. Default value is 1000.
+     */
+    public static final ConfigKey<Integer> NOTIFICATOR_QUEUE_SIZE = new ConfigKey<>(
+            "notificator.queueSize",
+            Collections.singletonList(KeyType.GLOBAL),
+            1000);
+
+    /**
+     * What to do with a notification when the queue is full. Value 'drop' discards the notification and 'caller' sends
+     * it on the thread that generated the event, slowing down event processing. Can be overridden for a specific type
+     * using 'notificator.{type}.queueOverflow' key. Default value is 'drop'.
+     */
+    public static final ConfigKey<String> NOTIFICATOR_QUEUE_OVERFLOW = new ConfigKey<>(
+            "notificator.queueOverflow",
+            Collections.singletonList(KeyType.GLOBAL),
+            "drop");
+
+    /**
+     * Number of threads sending notifications of a specific notificator type. Used with 'notificator.{type}' prefix
+     * and overrides 'notificator.threads' value.
+     */
+    public static final ConfigSuffix<Integer> NOTIFICATOR_TYPE_THREADS = new ConfigSuffix<>(
+            ".threads",
+            Collections.singletonList(KeyType.GLOBAL));
+
+    /**
+     * Maximum number of notifications of a specific notificator type waiting to be sent. Used with
+     * 'notificator.{type}' prefix and overrides 'notificator.queueSize' value.
+     */
+    public static final ConfigSuffix<Integer> NOTIFICATOR_TYPE_QUEUE_SIZE = new ConfigSuffix<>(
+            ".queueSize",
+            Collections.singletonList(KeyType.GLOBAL));
+
+    /**
+     * Queue overflow handling of a specific notificator type, either 'drop' or 'caller'. Used with
+     * 'notificator.{type}' prefix and overrides 'notificator.queueOverflow' value.
+     */
+    public static final ConfigSuffix<String> NOTIFICATOR_TYPE_QUEUE_OVERFLOW = new ConfigSuffix<>(
+            ".queueOverflow",
+            Collections.singletonList(KeyType.GLOBAL));
+
     /**
      * Maximum time period for reports in seconds. Can be useful to prevent users to request unreasonably long reports.
      * By default there is no limit.
@@ -766,6 +924,23 @@ public final class Keys {
             "report.periodLimit",
             Collections.singletonList(KeyType.GLOBAL));
 
+    /**
+     * Number of threads used to calculate reports for multiple devices in parallel. Each thread can hold a database
+     * connection, so the value should be lower than the database pool size. Default value is 4.
+     */
+    public static final ConfigKey<Integer> REPORT_THREADS = new ConfigKey<>(
+            "report.threads",
+            Collections.singletonList(KeyType.GLOBAL),
+            4);
+
+    /**
+     * Maximum number of devices calculated in parallel for a single user. Default value is 2.
+     */
+    public static final ConfigKey<Integer> REPORT_USER_THREADS = new ConfigKey<>(
+            "report.userThreads",
+            Collections.singletonList(KeyType.GLOBAL),
+            2);
+
     /**
      * Trips less than minimal duration and minimal distance are ignored. 300 seconds and 500 meters are default.
      */
@@ -940,6 +1115,17 @@ public final class Keys {
             "coordinates.maxError",
             Collections.singletonList(KeyType.GLOBAL));
 
+    /**
+     * Number of threads used for position processing after decoding and filtering. Geocoding, database storage, event
+     * handlers and notifications then run on this separate thread pool instead of network threads. Messages from the
+     * same connection are always processed by the same thread to keep the order. Only applies to TCP protocols,
+     * because a UDP server has a single channel for all devices, so UDP messages are still processed on network
+     * threads. Disabled by default.
+     */
+    public static final ConfigKey<Integer> PROCESSING_THREADS = new ConfigKey<>(
+            "processing.threads",
+            Collections.singletonList(KeyType.GLOBAL));
+
     /**
      * Enable to save device IP addresses information. Disabled by default.
      */
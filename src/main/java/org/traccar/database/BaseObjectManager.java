@@ -1,5 +1,5 @@
 /*
- * Copyright 2017 - 2020 Anton Tananaev (anton@traccar.org)
+ * Copyright 2017 - 2021 Anton Tananaev (anton@traccar.org)
  * Copyright 2017 Andrey Kunitsyn (andrey@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -18,18 +18,25 @@ package org.traccar.database;
 
 import java.sql.SQLException;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.traccar.model.BaseModel;
 
+/**
+ * Items are kept in an immutable snapshot, which is replaced on every modification. Readers don't need any locking
+ * and can use returned collections directly. Modifications are serialized using the write lock and during the full
+ * refresh all changes are applied to a single working copy, which is published once at the end.
+ */
 public class BaseObjectManager<T extends BaseModel> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(BaseObjectManager.class);
@@ -39,7 +46,8 @@ public class BaseObjectManager<T extends BaseModel> {
     private final DataManager dataManager;
 
     private final Class<T> baseClass;
-    private Map<Long, T> items;
+    private volatile Map<Long, T> items = Collections.emptyMap();
+    private Map<Long, T> pendingItems;
 
     protected BaseObjectManager(DataManager dataManager, Class<T> baseClass) {
         this.dataManager = dataManager;
@@ -72,11 +80,36 @@ public class BaseObjectManager<T extends BaseModel> {
     }
 
     public T getById(long itemId) {
+        return items.get(itemId);
+    }
+
+    private void putItem(T item) {
         try {
-            readLock();
-            return items.get(itemId);
+            writeLock();
+            if (pendingItems != null) {
+                pendingItems.put(item.getId(), item);
+            } else {
+                Map<Long, T> newItems = new HashMap<>(items);
+                newItems.put(item.getId(), item);
+                items = Collections.unmodifiableMap(newItems);
+            }
         } finally {
-            readUnlock();
+            writeUnlock();
+        }
+    }
+
+    private void deleteItem(long itemId) {
+        try {
+            writeLock();
+            if (pendingItems != null) {
+                pendingItems.remove(itemId);
+            } else if (items.containsKey(itemId)) {
+                Map<Long, T> newItems = new HashMap<>(items);
+                newItems.remove(itemId);
+                items = Collections.unmodifiableMap(newItems);
+            }
+        } finally {
+            writeUnlock();
         }
     }
 
@@ -84,39 +117,35 @@ public class BaseObjectManager<T extends BaseModel> {
         if (dataManager != null) {
             try {
                 writeLock();
-                Collection<T> databaseItems = dataManager.getObjects(baseClass);
-                if (items == null) {
-                    items = new ConcurrentHashMap<>(databaseItems.size());
-                }
+                pendingItems = new HashMap<>(items);
                 Set<Long> databaseItemIds = new HashSet<>();
-                for (T item : databaseItems) {
-                    databaseItemIds.add(item.getId());
-                    if (items.containsKey(item.getId())) {
-                        updateCachedItem(item);
-                    } else {
-                        addNewItem(item);
-                    }
+                try (Stream<T> databaseItems = dataManager.getObjectsStream(baseClass)) {
+                    databaseItems.forEach(item -> {
+                        databaseItemIds.add(item.getId());
+                        if (items.containsKey(item.getId())) {
+                            updateCachedItem(item);
+                        } else {
+                            addNewItem(item);
+                        }
+                    });
                 }
                 for (Long cachedItemId : items.keySet()) {
                     if (!databaseItemIds.contains(cachedItemId)) {
                         removeCachedItem(cachedItemId);
                     }
                 }
-            } catch (SQLException error) {
+                items = Collections.unmodifiableMap(pendingItems);
+            } catch (SQLException | RuntimeException error) {
                 LOGGER.warn("Error refreshing items", error);
             } finally {
+                pendingItems = null;
                 writeUnlock();
             }
         }
     }
 
     protected void addNewItem(T item) {
-        try {
-            writeLock();
-            items.put(item.getId(), item);
-        } finally {
-            writeUnlock();
-        }
+        putItem(item);
     }
 
     public void addItem(T item) throws SQLException {
@@ -125,12 +154,7 @@ public class BaseObjectManager<T extends BaseModel> {
     }
 
     protected void updateCachedItem(T item) {
-        try {
-            writeLock();
-            items.put(item.getId(), item);
-        } finally {
-            writeUnlock();
-        }
+        putItem(item);
     }
 
     public void updateItem(T item) throws SQLException {
@@ -139,12 +163,7 @@ public class BaseObjectManager<T extends BaseModel> {
     }
 
     protected void removeCachedItem(long itemId) {
-        try {
-            writeLock();
-            items.remove(itemId);
-        } finally {
-            writeUnlock();
-        }
+        deleteItem(itemId);
     }
 
     public void removeItem(long itemId) throws SQLException {
@@ -167,12 +186,7 @@ public class BaseObjectManager<T extends BaseModel> {
     }
 
     public Set<Long> getAllItems() {
-        try {
-            readLock();
-            return items.keySet();
-        } finally {
-            readUnlock();
-        }
+        return items.keySet();
     }
 
 }
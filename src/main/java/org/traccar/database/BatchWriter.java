@@ -0,0 +1,225 @@
+/*
+ * Copyright 2021 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.traccar.model.BaseModel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores objects of a single model class asynchronously using JDBC batches. Objects with the same key are always
+ * handled by the same writer thread, so their callbacks are invoked in the order the objects were written.
+ * <p>
+ * Each writer thread queue is soft limited by the queue size, after which producers should pause, and hard limited
+ * by twice the queue size, after which objects are rejected and should be stored directly by the caller.
+ */
+public class BatchWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchWriter.class);
+
+    private static final class Entry {
+
+        private final BaseModel object;
+        private final Runnable callback;
+
+        private Entry(BaseModel object, Runnable callback) {
+            this.object = object;
+            this.callback = callback;
+        }
+
+    }
+
+    interface Storage {
+
+        void addObjects(List<BaseModel> objects) throws Exception;
+
+        void addObject(BaseModel object) throws Exception;
+
+    }
+
+    private final Storage storage;
+    private final int batchSize;
+    private final long interval;
+    private final int queueSize;
+
+    private final Worker[] workers;
+    private final Queue<Runnable> resumeListeners = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running = true;
+
+    public BatchWriter(DataManager dataManager, String name, int threads, int batchSize, long interval, int queueSize) {
+        this(new Storage() {
+            @Override
+            public void addObjects(List<BaseModel> objects) throws Exception {
+                dataManager.addObjects(objects);
+            }
+
+            @Override
+            public void addObject(BaseModel object) throws Exception {
+                dataManager.addObject(object);
+            }
+        }, name, threads, batchSize, interval, queueSize);
+    }
+
+    BatchWriter(Storage storage, String name, int threads, int batchSize, long interval, int queueSize) {
+        this.storage = storage;
+        this.batchSize = Math.max(batchSize, 1);
+        this.interval = interval;
+        this.queueSize = Math.max(queueSize, 1);
+        workers = new Worker[Math.max(threads, 1)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker();
+            Thread thread = new Thread(workers[i], name + "-" + i);
+            thread.setDaemon(true);
+            workers[i].thread = thread;
+            thread.start();
+        }
+    }
+
+    private Worker getWorker(long key) {
+        return workers[(int) Math.floorMod(key, (long) workers.length)];
+    }
+
+    /**
+     * Queue object for storing. Callback is invoked from the writer thread after the object is stored, even if storing
+     * failed. Returns false without queuing if the queue reached its hard limit, in which case the caller should store
+     * the object directly.
+     */
+    public boolean write(long key, BaseModel object, Runnable callback) {
+        return getWorker(key).queue.offer(new Entry(object, callback));
+    }
+
+    /**
+     * Check if the queue of the key is over the soft limit. The caller should stop producing new objects until resume
+     * listener is called.
+     */
+    public boolean isFull(long key) {
+        return getWorker(key).queue.size() >= queueSize;
+    }
+
+    /**
+     * Listener is called once, when all queues are at most half full.
+     */
+    public void addResumeListener(Runnable listener) {
+        resumeListeners.add(listener);
+        checkResume();
+    }
+
+    private void checkResume() {
+        if (!resumeListeners.isEmpty()) {
+            for (Worker worker : workers) {
+                if (worker.queue.size() > queueSize / 2) {
+                    return;
+                }
+            }
+            Runnable listener;
+            while ((listener = resumeListeners.poll()) != null) {
+                listener.run();
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+        for (Worker worker : workers) {
+            try {
+                worker.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void store(List<Entry> batch) {
+        List<BaseModel> objects = new ArrayList<>(batch.size());
+        for (Entry entry : batch) {
+            objects.add(entry.object);
+        }
+        try {
+            storage.addObjects(objects);
+        } catch (Exception error) {
+            LOGGER.warn("Failed to store batch", error);
+            for (BaseModel object : objects) {
+                try {
+                    storage.addObject(object);
+                } catch (Exception objectError) {
+                    LOGGER.warn("Failed to store object", objectError);
+                }
+            }
+        }
+        for (Entry entry : batch) {
+            try {
+                entry.callback.run();
+            } catch (RuntimeException error) {
+                LOGGER.warn("Batch callback error", error);
+            }
+        }
+    }
+
+    private final class Worker implements Runnable {
+
+        private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>(queueSize * 2);
+        private Thread thread;
+
+        @Override
+        public void run() {
+            List<Entry> batch = new ArrayList<>(batchSize);
+            while (running || !queue.isEmpty()) {
+                try {
+                    Entry entry = queue.poll(interval, TimeUnit.MILLISECONDS);
+                    if (entry == null) {
+                        continue;
+                    }
+                    batch.add(entry);
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(interval);
+                    while (batch.size() < batchSize) {
+                        entry = queue.poll();
+                        if (entry == null) {
+                            long remaining = deadline - System.nanoTime();
+                            if (remaining <= 0 || !running) {
+                                break;
+                            }
+                            entry = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                            if (entry == null) {
+                                break;
+                            }
+                        }
+                        batch.add(entry);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    running = false;
+                }
+                if (!batch.isEmpty()) {
+                    store(batch);
+                    batch.clear();
+                    checkResume();
+                }
+            }
+        }
+
+    }
+
+}
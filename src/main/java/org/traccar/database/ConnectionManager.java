@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 - 2020 Anton Tananaev (anton@traccar.org)
+ * Copyright 2015 - 2021 Anton Tananaev (anton@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,6 +15,7 @@
  */
 package org.traccar.database;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import io.netty.channel.Channel;
 import io.netty.util.Timeout;
 import org.slf4j.Logger;
@@ -33,9 +34,10 @@ import org.traccar.model.Position;
 
 import java.net.SocketAddress;
 import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -49,6 +51,7 @@ public class ConnectionManager {
     private final boolean updateDeviceState;
 
     private final Map<Long, ActiveDevice> activeDevices = new ConcurrentHashMap<>();
+    private final Map<Channel, Set<Long>> channelDevices = new ConcurrentHashMap<>();
     private final Map<Long, Set<UpdateListener>> listeners = new ConcurrentHashMap<>();
     private final Map<Long, Timeout> timeouts = new ConcurrentHashMap<>();
 
@@ -58,15 +61,26 @@ public class ConnectionManager {
     }
 
     public void addActiveDevice(long deviceId, Protocol protocol, Channel channel, SocketAddress remoteAddress) {
-        activeDevices.put(deviceId, new ActiveDevice(deviceId, protocol, channel, remoteAddress));
+        ActiveDevice previous = activeDevices.put(
+                deviceId, new ActiveDevice(deviceId, protocol, channel, remoteAddress));
+        if (previous != null && previous.getChannel() != channel) {
+            Set<Long> previousDevices = channelDevices.get(previous.getChannel());
+            if (previousDevices != null) {
+                previousDevices.remove(deviceId);
+            }
+        }
+        channelDevices.computeIfAbsent(channel, key -> ConcurrentHashMap.newKeySet()).add(deviceId);
     }
 
     public void removeActiveDevice(Channel channel) {
-        for (ActiveDevice activeDevice : activeDevices.values()) {
-            if (activeDevice.getChannel() == channel) {
-                updateDevice(activeDevice.getDeviceId(), Device.STATUS_OFFLINE, null);
-                activeDevices.remove(activeDevice.getDeviceId());
-                break;
+        Set<Long> deviceIds = channelDevices.remove(channel);
+        if (deviceIds != null) {
+            for (long deviceId : deviceIds) {
+                ActiveDevice activeDevice = activeDevices.get(deviceId);
+                if (activeDevice != null && activeDevice.getChannel() == channel) {
+                    updateDevice(deviceId, Device.STATUS_OFFLINE, null);
+                    activeDevices.remove(deviceId, activeDevice);
+                }
             }
         }
     }
@@ -154,54 +168,101 @@ public class ConnectionManager {
         return result;
     }
 
-    public synchronized void updateDevice(Device device) {
-        for (long userId : Context.getPermissionsManager().getDeviceUsers(device.getId())) {
-            if (listeners.containsKey(userId)) {
-                for (UpdateListener listener : listeners.get(userId)) {
-                    listener.onUpdateDevice(device);
-                }
-            }
-        }
+    public void updateDevice(Device device) {
+        sendUpdate(Context.getPermissionsManager().getDeviceUsers(device.getId()),
+                new Update(Update.DEVICES, Collections.singletonList(device)));
+    }
+
+    public void updatePosition(Position position) {
+        sendUpdate(Context.getPermissionsManager().getDeviceUsers(position.getDeviceId()),
+                new Update(Update.POSITIONS, Collections.singletonList(position)));
     }
 
-    public synchronized void updatePosition(Position position) {
-        long deviceId = position.getDeviceId();
+    public void updateEvent(long userId, Event event) {
+        sendUpdate(Collections.singleton(userId), new Update(Update.EVENTS, Collections.singletonList(event)));
+    }
 
-        for (long userId : Context.getPermissionsManager().getDeviceUsers(deviceId)) {
-            if (listeners.containsKey(userId)) {
-                for (UpdateListener listener : listeners.get(userId)) {
-                    listener.onUpdatePosition(position);
+    private void sendUpdate(Set<Long> userIds, Update update) {
+        if (listeners.size() < userIds.size()) {
+            for (Map.Entry<Long, Set<UpdateListener>> entry : listeners.entrySet()) {
+                if (userIds.contains(entry.getKey())) {
+                    notifyListeners(entry.getValue(), update);
+                }
+            }
+        } else {
+            for (long userId : userIds) {
+                Set<UpdateListener> userListeners = listeners.get(userId);
+                if (userListeners != null) {
+                    notifyListeners(userListeners, update);
                 }
             }
         }
     }
 
-    public synchronized void updateEvent(long userId, Event event) {
-        if (listeners.containsKey(userId)) {
-            for (UpdateListener listener : listeners.get(userId)) {
-                listener.onUpdateEvent(event);
+    private static void notifyListeners(Set<UpdateListener> userListeners, Update update) {
+        for (UpdateListener listener : userListeners) {
+            listener.onUpdate(update);
+        }
+    }
+
+    /**
+     * Single change delivered to all interested listeners. JSON payload is created on the first request and shared
+     * by all recipients.
+     */
+    public static final class Update {
+
+        public static final String DEVICES = "devices";
+        public static final String POSITIONS = "positions";
+        public static final String EVENTS = "events";
+
+        private final String key;
+        private final Collection<?> items;
+        private String json;
+
+        public Update(String key, Collection<?> items) {
+            this.key = key;
+            this.items = items;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public Collection<?> getItems() {
+            return items;
+        }
+
+        public synchronized String getJson() throws JsonProcessingException {
+            if (json == null) {
+                json = Context.getObjectMapper().writeValueAsString(Collections.singletonMap(key, items));
             }
+            return json;
         }
+
     }
 
+    /**
+     * Listeners are called on the thread that produced the update, so they should only queue it for delivery.
+     */
     public interface UpdateListener {
-        void onUpdateDevice(Device device);
-        void onUpdatePosition(Position position);
-        void onUpdateEvent(Event event);
+        void onUpdate(Update update);
     }
 
-    public synchronized void addListener(long userId, UpdateListener listener) {
-        if (!listeners.containsKey(userId)) {
-            listeners.put(userId, new HashSet<>());
-        }
-        listeners.get(userId).add(listener);
+    public void addListener(long userId, UpdateListener listener) {
+        listeners.compute(userId, (key, userListeners) -> {
+            if (userListeners == null) {
+                userListeners = ConcurrentHashMap.newKeySet();
+            }
+            userListeners.add(listener);
+            return userListeners;
+        });
     }
 
-    public synchronized void removeListener(long userId, UpdateListener listener) {
-        if (!listeners.containsKey(userId)) {
-            listeners.put(userId, new HashSet<>());
-        }
-        listeners.get(userId).remove(listener);
+    public void removeListener(long userId, UpdateListener listener) {
+        listeners.computeIfPresent(userId, (key, userListeners) -> {
+            userListeners.remove(listener);
+            return userListeners.isEmpty() ? null : userListeners;
+        });
     }
 
 }
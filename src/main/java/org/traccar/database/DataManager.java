@@ -57,7 +57,9 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.stream.Stream;
 
 public class DataManager {
 
@@ -75,6 +77,8 @@ public class DataManager {
 
     private boolean generateQueries;
 
+    private int fetchSize;
+
     private final boolean forceLdap;
 
     public DataManager(Config config) throws Exception {
@@ -108,9 +112,11 @@ public class DataManager {
             Class.forName(driver);
         }
 
+        String url = config.getString(Keys.DATABASE_URL);
+
         HikariConfig hikariConfig = new HikariConfig();
         hikariConfig.setDriverClassName(driver);
-        hikariConfig.setJdbcUrl(config.getString(Keys.DATABASE_URL));
+        hikariConfig.setJdbcUrl(url);
         hikariConfig.setUsername(config.getString(Keys.DATABASE_USER));
         hikariConfig.setPassword(config.getString(Keys.DATABASE_PASSWORD));
         hikariConfig.setConnectionInitSql(config.getString(Keys.DATABASE_CHECK_CONNECTION));
@@ -121,8 +127,32 @@ public class DataManager {
             hikariConfig.setMaximumPoolSize(maxPoolSize);
         }
 
+        int statementCacheSize = config.getInteger(Keys.DATABASE_STATEMENT_CACHE_SIZE);
+        if (statementCacheSize > 0) {
+            if (url.startsWith("jdbc:mysql:") || url.startsWith("jdbc:mariadb:")) {
+                hikariConfig.addDataSourceProperty("cachePrepStmts", "true");
+                hikariConfig.addDataSourceProperty("prepStmtCacheSize", String.valueOf(statementCacheSize));
+                hikariConfig.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+            } else if (url.startsWith("jdbc:postgresql:")) {
+                hikariConfig.addDataSourceProperty(
+                        "preparedStatementCacheQueries", String.valueOf(statementCacheSize));
+            }
+        }
+        if (url.startsWith("jdbc:mysql:")) {
+            hikariConfig.addDataSourceProperty("rewriteBatchedStatements", "true"); // send batches as single statements
+        }
+        if (config.hasKey(Keys.DATABASE_PREPARE_THRESHOLD) && url.startsWith("jdbc:postgresql:")) {
+            hikariConfig.addDataSourceProperty(
+                    "prepareThreshold", String.valueOf(config.getInteger(Keys.DATABASE_PREPARE_THRESHOLD)));
+        }
+
         generateQueries = config.getBoolean(Keys.DATABASE_GENERATE_QUERIES);
 
+        fetchSize = config.getInteger(Keys.DATABASE_FETCH_SIZE);
+        if (url.startsWith("jdbc:mysql:") && !config.hasKey(Keys.DATABASE_FETCH_SIZE)) {
+            fetchSize = Integer.MIN_VALUE; // driver streams results only in this mode
+        }
+
         dataSource = new HikariDataSource(hikariConfig);
     }
 
@@ -320,6 +350,16 @@ public class DataManager {
                 .executeUpdate();
     }
 
+    public void updateDevicesStatus(Collection<Device> devices) throws SQLException {
+        if (!devices.isEmpty()) {
+            QueryBuilder builder = QueryBuilder.create(dataSource, getQuery(ACTION_UPDATE, Device.class, true));
+            for (Device device : devices) {
+                builder.setObject(device).addBatch();
+            }
+            builder.executeBatch(devices.size());
+        }
+    }
+
     public Collection<Position> getPositions(long deviceId, Date from, Date to) throws SQLException {
         return QueryBuilder.create(dataSource, getQuery("database.selectPositions"))
                 .setLong("deviceId", deviceId)
@@ -328,6 +368,14 @@ public class DataManager {
                 .executeQuery(Position.class);
     }
 
+    public Stream<Position> getPositionsStream(long deviceId, Date from, Date to) throws SQLException {
+        return QueryBuilder.create(dataSource, getQuery("database.selectPositions"))
+                .setLong("deviceId", deviceId)
+                .setDate("from", from)
+                .setDate("to", to)
+                .executeQueryStream(Position.class, fetchSize);
+    }
+
     public void updateLatestPosition(Position position) throws SQLException {
         QueryBuilder.create(dataSource, getQuery("database.updateLatestPosition"))
                 .setDate("now", new Date())
@@ -335,11 +383,27 @@ public class DataManager {
                 .executeUpdate();
     }
 
+    public void updateLatestPositions(Collection<Position> positions) throws SQLException {
+        if (!positions.isEmpty()) {
+            QueryBuilder builder = QueryBuilder.create(dataSource, getQuery("database.updateLatestPosition"));
+            Date now = new Date();
+            for (Position position : positions) {
+                builder.setDate("now", now).setObject(position).addBatch();
+            }
+            builder.executeBatch(positions.size());
+        }
+    }
+
     public Collection<Position> getLatestPositions() throws SQLException {
         return QueryBuilder.create(dataSource, getQuery("database.selectLatestPositions"))
                 .executeQuery(Position.class);
     }
 
+    public Stream<Position> getLatestPositionsStream() throws SQLException {
+        return QueryBuilder.create(dataSource, getQuery("database.selectLatestPositions"))
+                .executeQueryStream(Position.class, fetchSize);
+    }
+
     public Server getServer() throws SQLException {
         return QueryBuilder.create(dataSource, getQuery(ACTION_SELECT_ALL, Server.class))
                 .executeQuerySingle(Server.class);
@@ -419,12 +483,31 @@ public class DataManager {
                 .executeQuery(clazz);
     }
 
+    public <T extends BaseModel> Stream<T> getObjectsStream(Class<T> clazz) throws SQLException {
+        return QueryBuilder.create(dataSource, getQuery(ACTION_SELECT_ALL, clazz))
+                .executeQueryStream(clazz, fetchSize);
+    }
+
     public void addObject(BaseModel entity) throws SQLException {
         entity.setId(QueryBuilder.create(dataSource, getQuery(ACTION_INSERT, entity.getClass()), true)
                 .setObject(entity)
                 .executeUpdate());
     }
 
+    public void addObjects(List<? extends BaseModel> entities) throws SQLException {
+        if (!entities.isEmpty()) {
+            QueryBuilder builder = QueryBuilder.create(
+                    dataSource, getQuery(ACTION_INSERT, entities.get(0).getClass()), true);
+            for (BaseModel entity : entities) {
+                builder.setObject(entity).addBatch();
+            }
+            long[] ids = builder.executeBatch(entities.size());
+            for (int i = 0; i < ids.length; i++) {
+                entities.get(i).setId(ids[i]);
+            }
+        }
+    }
+
     public void updateObject(BaseModel entity) throws SQLException {
         QueryBuilder.create(dataSource, getQuery(ACTION_UPDATE, entity.getClass()))
                 .setObject(entity)
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 - 2020 Anton Tananaev (anton@traccar.org)
+ * Copyright 2016 - 2021 Anton Tananaev (anton@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -24,6 +24,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,6 +45,7 @@ public class DeviceManager extends BaseObjectManager<Device> implements Identity
 
     private final Config config;
     private final long dataRefreshDelay;
+    private final DeviceUpdateWriter updateWriter;
 
     private Map<String, Device> devicesByUniqueId;
     private Map<String, Device> devicesByPhone;
@@ -53,6 +55,35 @@ public class DeviceManager extends BaseObjectManager<Device> implements Identity
 
     private final Map<Long, DeviceState> deviceStates = new ConcurrentHashMap<>();
 
+    private static final int ATTRIBUTE_VALUE = 0;
+    private static final int ATTRIBUTE_BOOLEAN = 1;
+    private static final int ATTRIBUTE_INTEGER = 2;
+    private static final int ATTRIBUTE_LONG = 3;
+    private static final int ATTRIBUTE_DOUBLE = 4;
+    private static final int ATTRIBUTE_TYPES = 5;
+
+    private static final Object ATTRIBUTE_MISSING = new Object();
+
+    /**
+     * Effective attribute values of a single device. For each attribute name there is a slot per lookup mode and
+     * value type, so typed values are parsed only once. Slots are filled lazily and races only cause repeated lookups.
+     */
+    private static final class DeviceAttributes {
+
+        private final long generation;
+        private final int configVersion;
+        private final Map<String, Object[]> values = new ConcurrentHashMap<>();
+
+        private DeviceAttributes(long generation, int configVersion) {
+            this.generation = generation;
+            this.configVersion = configVersion;
+        }
+
+    }
+
+    private final Map<Long, DeviceAttributes> deviceAttributes = new ConcurrentHashMap<>();
+    private final AtomicLong attributesGeneration = new AtomicLong();
+
     public DeviceManager(DataManager dataManager) {
         super(dataManager, Device.class);
         this.config = Context.getConfig();
@@ -68,6 +99,12 @@ public class DeviceManager extends BaseObjectManager<Device> implements Identity
             writeUnlock();
         }
         dataRefreshDelay = config.getLong(Keys.DATABASE_REFRESH_DELAY) * 1000;
+        long updateInterval = config.getLong(Keys.DATABASE_DEVICE_UPDATE_INTERVAL);
+        if (dataManager != null && updateInterval > 0) {
+            updateWriter = new DeviceUpdateWriter(dataManager, updateInterval);
+        } else {
+            updateWriter = null;
+        }
         refreshLastPositions();
     }
 
@@ -89,8 +126,8 @@ public class DeviceManager extends BaseObjectManager<Device> implements Identity
             LOGGER.info("Automatically registered device " + uniqueId);
 
             if (defaultGroupId != 0) {
-                Context.getPermissionsManager().refreshDeviceAndGroupPermissions();
-                Context.getPermissionsManager().refreshAllExtendedPermissions();
+                Context.getPermissionsManager().addGroupDevice(device);
+                Context.getPermissionsManager().addDeviceToAllExtendedPermissions(device.getId());
             }
 
             return device.getId();
@@ -280,8 +317,12 @@ public class DeviceManager extends BaseObjectManager<Device> implements Identity
         cachedDevice.setCategory(device.getCategory());
         cachedDevice.setContact(device.getContact());
         cachedDevice.setModel(device.getModel());
+        if (device.getDisabled() != cachedDevice.getDisabled() && Context.getNotificationManager() != null) {
+            Context.getNotificationManager().invalidateRoutes(device.getId());
+        }
         cachedDevice.setDisabled(device.getDisabled());
         cachedDevice.setAttributes(device.getAttributes());
+        deviceAttributes.remove(device.getId());
         if (!device.getUniqueId().equals(cachedDevice.getUniqueId())) {
             removeByUniqueId(cachedDevice.getUniqueId());
             cachedDevice.setUniqueId(device.getUniqueId());
@@ -307,10 +348,27 @@ public class DeviceManager extends BaseObjectManager<Device> implements Identity
             removeByPhone(phone);
         }
         positions.remove(deviceId);
+        deviceAttributes.remove(deviceId);
+        if (Context.getNotificationManager() != null) {
+            Context.getNotificationManager().invalidateRoutes(deviceId);
+        }
+    }
+
+    /**
+     * Store pending latest position and status updates. Should be called on shutdown.
+     */
+    public void stopUpdates() {
+        if (updateWriter != null) {
+            updateWriter.stop();
+        }
     }
 
     public void updateDeviceStatus(Device device) throws SQLException {
-        getDataManager().updateDeviceStatus(device);
+        if (updateWriter != null) {
+            updateWriter.updateDeviceStatus(device);
+        } else {
+            getDataManager().updateDeviceStatus(device);
+        }
         Device cachedDevice = getById(device.getId());
         if (cachedDevice != null) {
             cachedDevice.setStatus(device.getStatus());
@@ -319,11 +377,9 @@ public class DeviceManager extends BaseObjectManager<Device> implements Identity
 
     private void refreshLastPositions() {
         if (getDataManager() != null) {
-            try {
-                for (Position position : getDataManager().getLatestPositions()) {
-                    positions.put(position.getDeviceId(), position);
-                }
-            } catch (SQLException error) {
+            try (Stream<Position> latestPositions = getDataManager().getLatestPositionsStream()) {
+                latestPositions.forEach(position -> positions.put(position.getDeviceId(), position));
+            } catch (SQLException | RuntimeException error) {
                 LOGGER.warn("Load latest positions error", error);
             }
         }
@@ -338,7 +394,11 @@ public class DeviceManager extends BaseObjectManager<Device> implements Identity
 
         if (isLatestPosition(position)) {
 
-            getDataManager().updateLatestPosition(position);
+            if (updateWriter != null) {
+                updateWriter.updateLatestPosition(position);
+            } else {
+                getDataManager().updateLatestPosition(position);
+            }
 
             Device device = getById(position.getDeviceId());
             if (device != null) {
@@ -377,47 +437,85 @@ public class DeviceManager extends BaseObjectManager<Device> implements Identity
     @Override
     public boolean lookupAttributeBoolean(
             long deviceId, String attributeName, boolean defaultValue, boolean lookupServer, boolean lookupConfig) {
-        Object result = lookupAttribute(deviceId, attributeName, lookupServer, lookupConfig);
-        if (result != null) {
-            return result instanceof String ? Boolean.parseBoolean((String) result) : (Boolean) result;
-        }
-        return defaultValue;
+        Object result = lookupCachedAttribute(deviceId, attributeName, lookupServer, lookupConfig, ATTRIBUTE_BOOLEAN);
+        return result != null ? (Boolean) result : defaultValue;
     }
 
     @Override
     public String lookupAttributeString(
             long deviceId, String attributeName, String defaultValue, boolean lookupServer, boolean lookupConfig) {
-        Object result = lookupAttribute(deviceId, attributeName, lookupServer, lookupConfig);
+        Object result = lookupCachedAttribute(deviceId, attributeName, lookupServer, lookupConfig, ATTRIBUTE_VALUE);
         return result != null ? (String) result : defaultValue;
     }
 
     @Override
     public int lookupAttributeInteger(
             long deviceId, String attributeName, int defaultValue, boolean lookupServer, boolean lookupConfig) {
-        Object result = lookupAttribute(deviceId, attributeName, lookupServer, lookupConfig);
-        if (result != null) {
-            return result instanceof String ? Integer.parseInt((String) result) : ((Number) result).intValue();
-        }
-        return defaultValue;
+        Object result = lookupCachedAttribute(deviceId, attributeName, lookupServer, lookupConfig, ATTRIBUTE_INTEGER);
+        return result != null ? (Integer) result : defaultValue;
     }
 
     @Override
     public long lookupAttributeLong(
             long deviceId, String attributeName, long defaultValue, boolean lookupServer, boolean lookupConfig) {
-        Object result = lookupAttribute(deviceId, attributeName, lookupServer, lookupConfig);
-        if (result != null) {
-            return result instanceof String ? Long.parseLong((String) result) : ((Number) result).longValue();
-        }
-        return defaultValue;
+        Object result = lookupCachedAttribute(deviceId, attributeName, lookupServer, lookupConfig, ATTRIBUTE_LONG);
+        return result != null ? (Long) result : defaultValue;
     }
 
     public double lookupAttributeDouble(
             long deviceId, String attributeName, double defaultValue, boolean lookupServer, boolean lookupConfig) {
-        Object result = lookupAttribute(deviceId, attributeName, lookupServer, lookupConfig);
-        if (result != null) {
-            return result instanceof String ? Double.parseDouble((String) result) : ((Number) result).doubleValue();
+        Object result = lookupCachedAttribute(deviceId, attributeName, lookupServer, lookupConfig, ATTRIBUTE_DOUBLE);
+        return result != null ? (Double) result : defaultValue;
+    }
+
+    /**
+     * Invalidate effective attributes of all devices. Needs to be called when groups or server attributes change.
+     */
+    public void resetAttributesCache() {
+        attributesGeneration.incrementAndGet();
+        deviceAttributes.clear();
+    }
+
+    private static Object convertAttribute(Object value, int type) {
+        switch (type) {
+            case ATTRIBUTE_BOOLEAN:
+                return value instanceof String ? Boolean.parseBoolean((String) value) : (Boolean) value;
+            case ATTRIBUTE_INTEGER:
+                return value instanceof String ? Integer.parseInt((String) value) : ((Number) value).intValue();
+            case ATTRIBUTE_LONG:
+                return value instanceof String ? Long.parseLong((String) value) : ((Number) value).longValue();
+            case ATTRIBUTE_DOUBLE:
+                return value instanceof String ? Double.parseDouble((String) value) : ((Number) value).doubleValue();
+            default:
+                return value;
+        }
+    }
+
+    private Object lookupCachedAttribute(
+            long deviceId, String attributeName, boolean lookupServer, boolean lookupConfig, int type) {
+        long generation = attributesGeneration.get();
+        int configVersion = config.getVersion();
+        DeviceAttributes attributes = deviceAttributes.get(deviceId);
+        if (attributes == null || attributes.generation != generation || attributes.configVersion != configVersion) {
+            if (getById(deviceId) == null) {
+                return null;
+            }
+            attributes = new DeviceAttributes(generation, configVersion);
+            deviceAttributes.put(deviceId, attributes);
+        }
+
+        Object[] slots = attributes.values.get(attributeName);
+        if (slots == null) {
+            slots = attributes.values.computeIfAbsent(attributeName, key -> new Object[4 * ATTRIBUTE_TYPES]);
+        }
+        int index = ((lookupServer ? 2 : 0) + (lookupConfig ? 1 : 0)) * ATTRIBUTE_TYPES + type;
+        Object result = slots[index];
+        if (result == null) {
+            Object value = lookupAttribute(deviceId, attributeName, lookupServer, lookupConfig);
+            result = value != null ? convertAttribute(value, type) : ATTRIBUTE_MISSING;
+            slots[index] = result;
         }
-        return defaultValue;
+        return result != ATTRIBUTE_MISSING ? result : null;
     }
 
     private Object lookupAttribute(long deviceId, String attributeName, boolean lookupServer, boolean lookupConfig) {
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2021 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.traccar.model.Device;
+import org.traccar.model.Position;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces latest position and device status updates. Only the last pending update of each device is kept and all
+ * pending updates are periodically stored using JDBC batches. Failed updates are retried on the next flush unless
+ * they are replaced by newer ones.
+ */
+public class DeviceUpdateWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeviceUpdateWriter.class);
+
+    private final DataManager dataManager;
+
+    private final Map<Long, Position> positions = new ConcurrentHashMap<>();
+    private final Map<Long, Device> devices = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService executor;
+
+    public DeviceUpdateWriter(DataManager dataManager, long interval) {
+        this.dataManager = dataManager;
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "device-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void updateLatestPosition(Position position) {
+        positions.put(position.getDeviceId(), position);
+    }
+
+    public void updateDeviceStatus(Device device) {
+        devices.put(device.getId(), device);
+    }
+
+    private static <T> List<T> drain(Map<Long, T> pending) {
+        List<T> result = new ArrayList<>();
+        for (Long key : pending.keySet()) {
+            T value = pending.remove(key);
+            if (value != null) {
+                result.add(value);
+            }
+        }
+        return result;
+    }
+
+    public synchronized void flush() {
+        List<Position> pendingPositions = drain(positions);
+        try {
+            dataManager.updateLatestPositions(pendingPositions);
+        } catch (SQLException | RuntimeException error) {
+            LOGGER.warn("Update latest positions error", error);
+            for (Position position : pendingPositions) {
+                positions.putIfAbsent(position.getDeviceId(), position);
+            }
+        }
+
+        List<Device> pendingDevices = drain(devices);
+        try {
+            dataManager.updateDevicesStatus(pendingDevices);
+        } catch (SQLException | RuntimeException error) {
+            LOGGER.warn("Update device status error", error);
+            for (Device device : pendingDevices) {
+                devices.putIfAbsent(device.getId(), device);
+            }
+        }
+    }
+
+    /**
+     * Stop periodic writing and store all pending updates.
+     */
+    public void stop() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+}
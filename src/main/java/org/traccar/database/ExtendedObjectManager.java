@@ -1,5 +1,5 @@
 /*
- * Copyright 2017 - 2020 Anton Tananaev (anton@traccar.org)
+ * Copyright 2017 - 2021 Anton Tananaev (anton@traccar.org)
  * Copyright 2017 Andrey Kunitsyn (andrey@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -18,14 +18,14 @@ package org.traccar.database;
 
 import java.sql.SQLException;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.traccar.Context;
+import org.traccar.helper.LongSet;
+import org.traccar.helper.LongSetMap;
 import org.traccar.model.Device;
 import org.traccar.model.Group;
 import org.traccar.model.Permission;
@@ -35,55 +35,44 @@ public abstract class ExtendedObjectManager<T extends BaseModel> extends SimpleO
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ExtendedObjectManager.class);
 
-    private final Map<Long, Set<Long>> deviceItems = new ConcurrentHashMap<>();
-    private final Map<Long, Set<Long>> deviceItemsWithGroups = new ConcurrentHashMap<>();
-    private final Map<Long, Set<Long>> groupItems = new ConcurrentHashMap<>();
+    private static final class ExtendedPermissions {
+
+        private final LongSetMap deviceItems;
+        private final LongSetMap deviceItemsWithGroups;
+        private final LongSetMap groupItems;
+
+        private ExtendedPermissions(LongSetMap deviceItems, LongSetMap deviceItemsWithGroups, LongSetMap groupItems) {
+            this.deviceItems = deviceItems;
+            this.deviceItemsWithGroups = deviceItemsWithGroups;
+            this.groupItems = groupItems;
+        }
+
+    }
+
+    private volatile ExtendedPermissions permissions;
 
     protected ExtendedObjectManager(DataManager dataManager, Class<T> baseClass) {
         super(dataManager, baseClass);
         refreshExtendedPermissions();
     }
 
-    public final Set<Long> getGroupItems(long groupId) {
-        try {
-            readLock();
-            Set<Long> result = groupItems.get(groupId);
-            if (result != null) {
-                return new HashSet<>(result);
-            } else {
-                return new HashSet<>();
-            }
-        } finally {
-            readUnlock();
-        }
+    public final LongSet getGroupItems(long groupId) {
+        ExtendedPermissions current = permissions;
+        return current != null ? current.groupItems.get(groupId) : LongSet.EMPTY;
     }
 
-    public final Set<Long> getDeviceItems(long deviceId) {
-        try {
-            readLock();
-            Set<Long> result = deviceItems.get(deviceId);
-            if (result != null) {
-                return new HashSet<>(result);
-            } else {
-                return new HashSet<>();
-            }
-        } finally {
-            readUnlock();
-        }
+    public final LongSet getDeviceItems(long deviceId) {
+        ExtendedPermissions current = permissions;
+        return current != null ? current.deviceItems.get(deviceId) : LongSet.EMPTY;
     }
 
-    public Set<Long> getAllDeviceItems(long deviceId) {
-        try {
-            readLock();
-            Set<Long> result = deviceItemsWithGroups.get(deviceId);
-            if (result != null) {
-                return new HashSet<>(result);
-            } else {
-                return new HashSet<>();
-            }
-        } finally {
-            readUnlock();
-        }
+    public LongSet getAllDeviceItems(long deviceId) {
+        ExtendedPermissions current = permissions;
+        return current != null ? current.deviceItemsWithGroups.get(deviceId) : LongSet.EMPTY;
+    }
+
+    public final boolean checkDeviceItem(long deviceId, long itemId) {
+        return getAllDeviceItems(deviceId).contains(itemId);
     }
 
     @Override
@@ -95,44 +84,39 @@ public abstract class ExtendedObjectManager<T extends BaseModel> extends SimpleO
     public void refreshExtendedPermissions() {
         if (getDataManager() != null) {
             try {
+                writeLock();
                 Collection<Permission> databaseGroupPermissions =
                         getDataManager().getPermissions(Group.class, getBaseClass());
 
                 Collection<Permission> databaseDevicePermissions =
                         getDataManager().getPermissions(Device.class, getBaseClass());
 
-                writeLock();
-
-                groupItems.clear();
-                deviceItems.clear();
-                deviceItemsWithGroups.clear();
+                LongSetMap.Builder groupItemsBuilder = new LongSetMap.Builder();
+                LongSetMap.Builder deviceItems = new LongSetMap.Builder();
+                LongSetMap.Builder deviceItemsWithGroups = new LongSetMap.Builder();
 
                 for (Permission groupPermission : databaseGroupPermissions) {
-                    groupItems
-                            .computeIfAbsent(groupPermission.getOwnerId(), key -> new HashSet<>())
-                            .add(groupPermission.getPropertyId());
+                    groupItemsBuilder.add(groupPermission.getOwnerId(), groupPermission.getPropertyId());
                 }
+                LongSetMap groupItems = groupItemsBuilder.build();
 
                 for (Permission devicePermission : databaseDevicePermissions) {
-                    deviceItems
-                            .computeIfAbsent(devicePermission.getOwnerId(), key -> new HashSet<>())
-                            .add(devicePermission.getPropertyId());
-                    deviceItemsWithGroups
-                            .computeIfAbsent(devicePermission.getOwnerId(), key -> new HashSet<>())
-                            .add(devicePermission.getPropertyId());
+                    deviceItems.add(devicePermission.getOwnerId(), devicePermission.getPropertyId());
+                    deviceItemsWithGroups.add(devicePermission.getOwnerId(), devicePermission.getPropertyId());
                 }
 
                 for (Device device : Context.getDeviceManager().getAllDevices()) {
                     long groupId = device.getGroupId();
                     while (groupId > 0) {
-                        deviceItemsWithGroups
-                                .computeIfAbsent(device.getId(), key -> new HashSet<>())
-                                .addAll(groupItems.getOrDefault(groupId, new HashSet<>()));
+                        deviceItemsWithGroups.addAll(device.getId(), groupItems.get(groupId));
                         Group group = Context.getGroupsManager().getById(groupId);
                         groupId = group != null ? group.getGroupId() : 0;
                     }
                 }
 
+                permissions = new ExtendedPermissions(
+                        deviceItems.build(), deviceItemsWithGroups.build(), groupItems);
+
             } catch (SQLException | ClassNotFoundException error) {
                 LOGGER.warn("Refresh permissions error", error);
             } finally {
@@ -140,4 +124,74 @@ public abstract class ExtendedObjectManager<T extends BaseModel> extends SimpleO
             }
         }
     }
+
+    private static LongSet getDeviceItemsWithGroups(LongSetMap deviceItems, LongSetMap groupItems, long deviceId) {
+        LongSet.Builder result = new LongSet.Builder().addAll(deviceItems.get(deviceId));
+        Device device = Context.getDeviceManager().getById(deviceId);
+        long groupId = device != null ? device.getGroupId() : 0;
+        while (groupId > 0) {
+            result.addAll(groupItems.get(groupId));
+            Group group = Context.getGroupsManager().getById(groupId);
+            groupId = group != null ? group.getGroupId() : 0;
+        }
+        return result.build();
+    }
+
+    private void updatePermissions(LongSetMap deviceItems, LongSetMap groupItems, LongSet deviceIds) {
+        ExtendedPermissions current = permissions;
+        LongSetMap deviceItemsWithGroups = current != null ? current.deviceItemsWithGroups : LongSetMap.EMPTY;
+        Map<Long, LongSet> changes = new HashMap<>();
+        deviceIds.forEachLong(deviceId -> changes.put(
+                deviceId, getDeviceItemsWithGroups(deviceItems, groupItems, deviceId)));
+        permissions = new ExtendedPermissions(deviceItems, deviceItemsWithGroups.withAll(changes), groupItems);
+    }
+
+    /**
+     * Apply a single added or removed device or group link. Only items of the affected devices are recalculated.
+     */
+    public final void updateExtendedPermission(Class<?> ownerClass, long ownerId, long itemId, boolean link) {
+        LongSet deviceIds;
+        try {
+            writeLock();
+            ExtendedPermissions current = permissions;
+            LongSetMap deviceItems = current != null ? current.deviceItems : LongSetMap.EMPTY;
+            LongSetMap groupItems = current != null ? current.groupItems : LongSetMap.EMPTY;
+            if (ownerClass.equals(Device.class)) {
+                LongSet items = deviceItems.get(ownerId);
+                deviceItems = deviceItems.with(ownerId, link ? items.with(itemId) : items.without(itemId));
+                deviceIds = LongSet.of(ownerId);
+            } else {
+                LongSet items = groupItems.get(ownerId);
+                groupItems = groupItems.with(ownerId, link ? items.with(itemId) : items.without(itemId));
+                deviceIds = Context.getPermissionsManager().getGroupDevices(ownerId);
+            }
+            updatePermissions(deviceItems, groupItems, deviceIds);
+        } finally {
+            writeUnlock();
+        }
+        refreshDevices(deviceIds);
+    }
+
+    /**
+     * Calculate items of a new device, which are inherited from its groups.
+     */
+    public final void addDevice(long deviceId) {
+        try {
+            writeLock();
+            ExtendedPermissions current = permissions;
+            if (current != null) {
+                updatePermissions(current.deviceItems, current.groupItems, LongSet.of(deviceId));
+            }
+        } finally {
+            writeUnlock();
+        }
+        refreshDevices(LongSet.of(deviceId));
+    }
+
+    /**
+     * Called after items of some devices are updated incrementally.
+     */
+    protected void refreshDevices(LongSet deviceIds) {
+    }
+
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 - 2017 Anton Tananaev (anton@traccar.org)
+ * Copyright 2016 - 2021 Anton Tananaev (anton@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -18,17 +18,75 @@ package org.traccar.database;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.strtree.STRtree;
 import org.traccar.Context;
+import org.traccar.helper.LongSet;
 import org.traccar.model.Device;
 import org.traccar.model.Geofence;
 import org.traccar.model.Position;
 
 public class GeofenceManager extends ExtendedObjectManager<Geofence> {
 
+    private volatile STRtree index;
+
     public GeofenceManager(DataManager dataManager) {
         super(dataManager, Geofence.class);
     }
 
+    private synchronized void invalidateIndex() {
+        index = null;
+    }
+
+    /**
+     * Spatial index of geofence envelopes. It is rebuilt lazily after any geofence change, because built tree can't
+     * be modified.
+     */
+    private STRtree getIndex() {
+        STRtree result = index;
+        if (result == null) {
+            synchronized (this) {
+                result = index;
+                if (result == null) {
+                    result = new STRtree();
+                    for (long geofenceId : getAllItems()) {
+                        Geofence geofence = getById(geofenceId);
+                        if (geofence != null && geofence.getGeometry() != null) {
+                            result.insert(geofence.getGeometry().getEnvelope(), geofence);
+                        }
+                    }
+                    result.build();
+                    index = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void refreshItems() {
+        super.refreshItems();
+        invalidateIndex();
+    }
+
+    @Override
+    protected void addNewItem(Geofence geofence) {
+        super.addNewItem(geofence);
+        invalidateIndex();
+    }
+
+    @Override
+    protected void updateCachedItem(Geofence geofence) {
+        super.updateCachedItem(geofence);
+        invalidateIndex();
+    }
+
+    @Override
+    protected void removeCachedItem(long geofenceId) {
+        super.removeCachedItem(geofenceId);
+        invalidateIndex();
+    }
+
     @Override
     public final void refreshExtendedPermissions() {
         super.refreshExtendedPermissions();
@@ -37,30 +95,49 @@ public class GeofenceManager extends ExtendedObjectManager<Geofence> {
 
     public List<Long> getCurrentDeviceGeofences(Position position) {
         List<Long> result = new ArrayList<>();
-        for (long geofenceId : getAllDeviceItems(position.getDeviceId())) {
-            Geofence geofence = getById(geofenceId);
-            if (geofence != null && geofence.getGeometry()
-                    .containsPoint(position.getLatitude(), position.getLongitude())) {
-                result.add(geofenceId);
+        Envelope point = new Envelope(
+                position.getLongitude(), position.getLongitude(), position.getLatitude(), position.getLatitude());
+        for (Object item : getIndex().query(point)) {
+            Geofence geofence = (Geofence) item;
+            if (checkDeviceItem(position.getDeviceId(), geofence.getId())
+                    && geofence.getGeometry().containsPoint(position.getLatitude(), position.getLongitude())) {
+                result.add(geofence.getId());
             }
         }
         return result;
     }
 
+    /**
+     * Devices are independent, so containment is calculated in parallel. It matters mostly on startup, when every
+     * device with a last position has to be checked.
+     */
     public void recalculateDevicesGeofences() {
-        for (Device device : Context.getDeviceManager().getAllDevices()) {
-            List<Long> deviceGeofenceIds = device.getGeofenceIds();
-            if (deviceGeofenceIds == null) {
-                deviceGeofenceIds = new ArrayList<>();
-            } else {
-                deviceGeofenceIds.clear();
-            }
-            Position lastPosition = Context.getIdentityManager().getLastPosition(device.getId());
-            if (lastPosition != null && getAllDeviceItems(device.getId()) != null) {
-                deviceGeofenceIds.addAll(getCurrentDeviceGeofences(lastPosition));
-            }
-            device.setGeofenceIds(deviceGeofenceIds);
+        List<Device> devices = new ArrayList<>(Context.getDeviceManager().getAllDevices());
+        devices.parallelStream().forEach(this::recalculateDeviceGeofences);
+    }
+
+    private void recalculateDeviceGeofences(Device device) {
+        List<Long> deviceGeofenceIds = device.getGeofenceIds();
+        if (deviceGeofenceIds == null) {
+            deviceGeofenceIds = new ArrayList<>();
+        } else {
+            deviceGeofenceIds.clear();
         }
+        Position lastPosition = Context.getIdentityManager().getLastPosition(device.getId());
+        if (lastPosition != null && getAllDeviceItems(device.getId()) != null) {
+            deviceGeofenceIds.addAll(getCurrentDeviceGeofences(lastPosition));
+        }
+        device.setGeofenceIds(deviceGeofenceIds);
+    }
+
+    @Override
+    protected void refreshDevices(LongSet deviceIds) {
+        deviceIds.forEachLong(deviceId -> {
+            Device device = Context.getDeviceManager().getById(deviceId);
+            if (device != null) {
+                recalculateDeviceGeofences(device);
+            }
+        });
     }
 
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 Anton Tananaev (anton@traccar.org)
+ * Copyright 2016 - 2021 Anton Tananaev (anton@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,137 +15,70 @@
  */
 package org.traccar.database;
 
+import org.traccar.helper.LongSet;
+import org.traccar.helper.LongSetMap;
 import org.traccar.model.Device;
 import org.traccar.model.Group;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
 
+/**
+ * Group hierarchy stored as primitive identifier sets. Results contain identifiers of all descendant groups or devices.
+ */
 public class GroupTree {
 
-    private static class TreeNode {
-
-        private Group group;
-        private Device device;
-        private Collection<TreeNode> children = new HashSet<>();
-
-        TreeNode(Group group) {
-            this.group = group;
-        }
-
-        TreeNode(Device device) {
-            this.device = device;
-        }
-
-        @Override
-        public int hashCode() {
-            if (group != null) {
-                return (int) group.getId();
-            } else {
-                return (int) device.getId();
-            }
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (!(obj instanceof TreeNode)) {
-                return false;
-            }
-            TreeNode other = (TreeNode) obj;
-            if (other == this) {
-                return true;
-            }
-            if (group != null && other.group != null) {
-                return group.getId() == other.group.getId();
-            } else if (device != null && other.device != null) {
-                return device.getId() == other.device.getId();
-            }
-            return false;
-        }
-
-        public Group getGroup() {
-            return group;
-        }
-
-        public Device getDevice() {
-            return device;
-        }
-
-        public void setParent(TreeNode parent) {
-            if (parent != null) {
-                parent.children.add(this);
-            }
-        }
-
-        public Collection<TreeNode> getChildren() {
-            return children;
-        }
-
-    }
-
-    private final Map<Long, TreeNode> groupMap = new HashMap<>();
+    private final LongSet groups;
+    private final LongSetMap childGroups;
+    private final LongSetMap childDevices;
 
     public GroupTree(Collection<Group> groups, Collection<Device> devices) {
 
+        LongSet.Builder groupsBuilder = new LongSet.Builder(groups.size());
         for (Group group : groups) {
-            groupMap.put(group.getId(), new TreeNode(group));
+            groupsBuilder.add(group.getId());
         }
+        this.groups = groupsBuilder.build();
 
-        for (TreeNode node : groupMap.values()) {
-            if (node.getGroup().getGroupId() != 0) {
-                node.setParent(groupMap.get(node.getGroup().getGroupId()));
+        LongSetMap.Builder childGroupsBuilder = new LongSetMap.Builder();
+        for (Group group : groups) {
+            if (group.getGroupId() != 0 && this.groups.contains(group.getGroupId())) {
+                childGroupsBuilder.add(group.getGroupId(), group.getId());
             }
         }
+        childGroups = childGroupsBuilder.build();
 
-        Map<Long, TreeNode> deviceMap = new HashMap<>();
-
+        LongSetMap.Builder childDevicesBuilder = new LongSetMap.Builder();
         for (Device device : devices) {
-            deviceMap.put(device.getId(), new TreeNode(device));
-        }
-
-        for (TreeNode node : deviceMap.values()) {
-            if (node.getDevice().getGroupId() != 0) {
-                node.setParent(groupMap.get(node.getDevice().getGroupId()));
+            if (device.getGroupId() != 0 && this.groups.contains(device.getGroupId())) {
+                childDevicesBuilder.add(device.getGroupId(), device.getId());
             }
         }
+        childDevices = childDevicesBuilder.build();
 
     }
 
-    public Collection<Group> getGroups(long groupId) {
-        Set<TreeNode> results = new HashSet<>();
-        getNodes(results, groupMap.get(groupId));
-        Collection<Group> groups = new ArrayList<>();
-        for (TreeNode node : results) {
-            if (node.getGroup() != null) {
-                groups.add(node.getGroup());
-            }
+    public LongSet getGroups(long groupId) {
+        LongSet.Builder result = new LongSet.Builder();
+        if (groups.contains(groupId)) {
+            collectGroups(result, groupId);
         }
-        return groups;
+        return result.build();
     }
 
-    public Collection<Device> getDevices(long groupId) {
-        Set<TreeNode> results = new HashSet<>();
-        getNodes(results, groupMap.get(groupId));
-        Collection<Device> devices = new ArrayList<>();
-        for (TreeNode node : results) {
-            if (node.getDevice() != null) {
-                devices.add(node.getDevice());
-            }
+    public LongSet getDevices(long groupId) {
+        LongSet.Builder result = new LongSet.Builder();
+        if (groups.contains(groupId)) {
+            result.addAll(childDevices.get(groupId));
+            getGroups(groupId).forEachLong(childId -> result.addAll(childDevices.get(childId)));
         }
-        return devices;
+        return result.build();
     }
 
-    private void getNodes(Set<TreeNode> results, TreeNode node) {
-        if (node != null) {
-            for (TreeNode child : node.getChildren()) {
-                results.add(child);
-                getNodes(results, child);
-            }
-        }
+    private void collectGroups(LongSet.Builder result, long groupId) {
+        childGroups.get(groupId).forEachLong(childId -> {
+            result.add(childId);
+            collectGroups(result, childId);
+        });
     }
 
 }
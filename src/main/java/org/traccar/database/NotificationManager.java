@@ -19,18 +19,24 @@ package org.traccar.database;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.traccar.Context;
+import org.traccar.config.Config;
 import org.traccar.config.Keys;
+import org.traccar.helper.LongSet;
 import org.traccar.model.Calendar;
 import org.traccar.model.Event;
 import org.traccar.model.Notification;
@@ -41,85 +47,254 @@ public class NotificationManager extends ExtendedObjectManager<Notification> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(NotificationManager.class);
 
+    private static final class NotificationRoute {
+
+        private final long calendarId;
+        private final Set<String> alarms;
+        private final Set<String> notificators;
+
+        private NotificationRoute(Notification notification) {
+            calendarId = notification.getCalendarId();
+            if (notification.getType().equals(Event.TYPE_ALARM)) {
+                String alarmsAttribute = notification.getString("alarms");
+                alarms = alarmsAttribute != null
+                        ? new HashSet<>(Arrays.asList(alarmsAttribute.split(","))) : Collections.emptySet();
+            } else {
+                alarms = null;
+            }
+            notificators = notification.getNotificatorsTypes();
+        }
+
+        private boolean matches(Event event) {
+            if (alarms != null && !alarms.contains(event.getString(Position.KEY_ALARM))) {
+                return false;
+            }
+            Calendar calendar = calendarId != 0 ? Context.getCalendarManager().getById(calendarId) : null;
+            return calendar == null || calendar.checkMoment(event.getEventTime());
+        }
+
+    }
+
+    private static final class UserRoute {
+
+        private final long userId;
+        private final List<NotificationRoute> notifications = new ArrayList<>();
+
+        private UserRoute(long userId) {
+            this.userId = userId;
+        }
+
+    }
+
+    private static final class DeviceRoutes {
+
+        private final long generation;
+        private final Map<String, List<UserRoute>> routes;
+
+        private DeviceRoutes(long generation, Map<String, List<UserRoute>> routes) {
+            this.generation = generation;
+            this.routes = routes;
+        }
+
+    }
+
     private final boolean geocodeOnRequest;
+    private final BatchWriter eventWriter;
+    private final AtomicLong eventOverflow = new AtomicLong();
+
+    private final Map<Long, DeviceRoutes> deviceRoutes = new ConcurrentHashMap<>();
+    private long generation;
 
     public NotificationManager(DataManager dataManager) {
         super(dataManager, Notification.class);
-        geocodeOnRequest = Context.getConfig().getBoolean(Keys.GEOCODER_ON_REQUEST);
+        Config config = Context.getConfig();
+        geocodeOnRequest = config.getBoolean(Keys.GEOCODER_ON_REQUEST);
+        if (dataManager != null && config.getBoolean(Keys.DATABASE_BATCH_ENABLE)) {
+            eventWriter = new BatchWriter(
+                    dataManager, "event-writer", 1,
+                    config.getInteger(Keys.DATABASE_BATCH_SIZE),
+                    config.getLong(Keys.DATABASE_BATCH_INTERVAL),
+                    config.getInteger(Keys.DATABASE_BATCH_QUEUE_SIZE));
+        } else {
+            eventWriter = null;
+        }
+    }
+
+    /**
+     * Store pending events. Should be called on shutdown.
+     */
+    public void stopUpdates() {
+        if (eventWriter != null) {
+            eventWriter.stop();
+        }
+    }
+
+    private synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Invalidate routes of all devices. Routes are recalculated lazily on the next event of each device.
+     */
+    public synchronized void invalidateRoutes() {
+        generation += 1;
+    }
+
+    /**
+     * Invalidate routes of the given devices. It should be called after users or notifications of the devices change.
+     */
+    public void invalidateRoutes(LongSet deviceIds) {
+        deviceIds.forEachLong(this::invalidateRoutes);
+    }
+
+    /**
+     * Drop cached routes of a device. It should be called when the device is disabled, enabled or removed.
+     */
+    public void invalidateRoutes(long deviceId) {
+        deviceRoutes.remove(deviceId);
     }
 
-    private Set<Long> getEffectiveNotifications(long userId, long deviceId, Date time) {
-        Set<Long> result = new HashSet<>();
+    /**
+     * Notifications of all device users grouped by event type and user.
+     */
+    private Map<String, List<UserRoute>> createRoutes(long deviceId) {
+        Map<String, List<UserRoute>> result = new HashMap<>();
         Set<Long> deviceNotifications = getAllDeviceItems(deviceId);
-        for (long itemId : getUserItems(userId)) {
-            if (getById(itemId).getAlways() || deviceNotifications.contains(itemId)) {
-                long calendarId = getById(itemId).getCalendarId();
-                Calendar calendar = calendarId != 0 ? Context.getCalendarManager().getById(calendarId) : null;
-                if (calendar == null || calendar.checkMoment(time)) {
-                    result.add(itemId);
+        for (long userId : Context.getPermissionsManager().getDeviceUsers(deviceId)) {
+            Map<String, UserRoute> userRoutes = new HashMap<>();
+            for (long notificationId : getUserItems(userId)) {
+                Notification notification = getById(notificationId);
+                if (notification != null
+                        && (notification.getAlways() || deviceNotifications.contains(notificationId))) {
+                    userRoutes.computeIfAbsent(notification.getType(), key -> new UserRoute(userId))
+                            .notifications.add(new NotificationRoute(notification));
                 }
             }
+            userRoutes.forEach((type, route) -> result.computeIfAbsent(type, key -> new ArrayList<>()).add(route));
         }
-        return result;
+        return result.isEmpty() ? Collections.emptyMap() : result;
     }
 
+    private List<UserRoute> getRoutes(long deviceId, String type) {
+        DeviceRoutes routes = deviceRoutes.get(deviceId);
+        if (routes == null || routes.generation != getGeneration()) {
+            routes = deviceRoutes.compute(deviceId, (key, current) -> {
+                long currentGeneration = getGeneration();
+                if (current != null && current.generation == currentGeneration) {
+                    return current;
+                }
+                return new DeviceRoutes(currentGeneration, createRoutes(deviceId));
+            });
+        }
+        return routes.routes.getOrDefault(type, Collections.emptyList());
+    }
+
+    private boolean checkUser(long userId, Event event) {
+        return (event.getGeofenceId() == 0
+                || Context.getGeofenceManager().checkItemPermission(userId, event.getGeofenceId()))
+                && (event.getMaintenanceId() == 0
+                || Context.getMaintenancesManager().checkItemPermission(userId, event.getMaintenanceId()));
+    }
+
+    private void updateAddress(Position position) {
+        if (position != null && position.getAddress() == null
+                && geocodeOnRequest && Context.getGeocoder() != null) {
+            position.setAddress(Context.getGeocoder()
+                    .getAddress(position.getLatitude(), position.getLongitude(), null));
+        }
+    }
+
+    /**
+     * Store event and send notifications. With batching enabled, notifications are sent immediately and the event id
+     * is set later, when the batch is committed. If the batch queue is full, the event is stored directly, which slows
+     * down the caller until the database catches up.
+     */
     public void updateEvent(Event event, Position position) {
-        try {
-            getDataManager().addObject(event);
-        } catch (SQLException error) {
-            LOGGER.warn("Event save error", error);
+        if (eventWriter == null || !eventWriter.write(event.getDeviceId(), event, () -> { })) {
+            if (eventWriter != null && eventOverflow.incrementAndGet() % 1000 == 1) {
+                LOGGER.warn("Event writer queue is full, {} events stored directly", eventOverflow.get());
+            }
+            try {
+                getDataManager().addObject(event);
+            } catch (SQLException error) {
+                LOGGER.warn("Event save error", error);
+            }
         }
 
         long deviceId = event.getDeviceId();
-        Set<Long> users = Context.getPermissionsManager().getDeviceUsers(deviceId);
-        Set<Long> usersToForward = null;
-        if (Context.getEventForwarder() != null) {
-            usersToForward = new HashSet<>();
-        }
-        for (long userId : users) {
-            if ((event.getGeofenceId() == 0
-                    || Context.getGeofenceManager().checkItemPermission(userId, event.getGeofenceId()))
-                    && (event.getMaintenanceId() == 0
-                    || Context.getMaintenancesManager().checkItemPermission(userId, event.getMaintenanceId()))) {
-                if (usersToForward != null) {
-                    usersToForward.add(userId);
-                }
-                final Set<String> notificators = new HashSet<>();
-                for (long notificationId : getEffectiveNotifications(userId, deviceId, event.getEventTime())) {
-                    Notification notification = getById(notificationId);
-                    if (getById(notificationId).getType().equals(event.getType())) {
-                        boolean filter = false;
-                        if (event.getType().equals(Event.TYPE_ALARM)) {
-                            String alarmsAttribute = notification.getString("alarms");
-                            if (alarmsAttribute == null) {
-                                filter = true;
-                            } else {
-                                List<String> alarms = Arrays.asList(alarmsAttribute.split(","));
-                                filter = !alarms.contains(event.getString(Position.KEY_ALARM));
-                            }
-                        }
-                        if (!filter) {
-                            notificators.addAll(notification.getNotificatorsTypes());
-                        }
+        for (UserRoute route : getRoutes(deviceId, event.getType())) {
+            if (checkUser(route.userId, event)) {
+                Set<String> notificators = new HashSet<>();
+                for (NotificationRoute notification : route.notifications) {
+                    if (notification.matches(event)) {
+                        notificators.addAll(notification.notificators);
                     }
                 }
 
-                if (position != null && position.getAddress() == null
-                        && geocodeOnRequest && Context.getGeocoder() != null) {
-                    position.setAddress(Context.getGeocoder()
-                            .getAddress(position.getLatitude(), position.getLongitude(), null));
+                if (!notificators.isEmpty()) {
+                    updateAddress(position);
                 }
 
                 for (String notificator : notificators) {
-                    Context.getNotificatorManager().getNotificator(notificator).sendAsync(userId, event, position);
+                    Context.getNotificatorManager().sendAsync(notificator, route.userId, event, position);
                 }
             }
         }
+
         if (Context.getEventForwarder() != null) {
+            Set<Long> usersToForward = new HashSet<>();
+            for (long userId : Context.getPermissionsManager().getDeviceUsers(deviceId)) {
+                if (checkUser(userId, event)) {
+                    usersToForward.add(userId);
+                }
+            }
+            if (!usersToForward.isEmpty()) {
+                updateAddress(position);
+            }
             Context.getEventForwarder().forwardEvent(event, position, usersToForward);
         }
     }
 
+    @Override
+    protected void addNewItem(Notification notification) {
+        super.addNewItem(notification);
+        invalidateRoutes();
+    }
+
+    @Override
+    protected void updateCachedItem(Notification notification) {
+        super.updateCachedItem(notification);
+        invalidateRoutes();
+    }
+
+    @Override
+    protected void removeCachedItem(long notificationId) {
+        super.removeCachedItem(notificationId);
+        invalidateRoutes();
+    }
+
+    @Override
+    public void refreshUserItems() {
+        super.refreshUserItems();
+        invalidateRoutes();
+    }
+
+    @Override
+    protected void refreshUsers(LongSet userIds) {
+        invalidateRoutes();
+    }
+
+    @Override
+    public void refreshExtendedPermissions() {
+        super.refreshExtendedPermissions();
+        invalidateRoutes();
+    }
+
+    @Override
+    protected void refreshDevices(LongSet deviceIds) {
+        invalidateRoutes(deviceIds);
+    }
+
     public void updateEvents(Map<Event, Position> events) {
         for (Entry<Event, Position> event : events.entrySet()) {
             updateEvent(event.getKey(), event.getValue());
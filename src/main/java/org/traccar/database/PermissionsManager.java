@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 - 2018 Anton Tananaev (anton@traccar.org)
+ * Copyright 2015 - 2021 Anton Tananaev (anton@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -18,6 +18,8 @@ package org.traccar.database;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.traccar.Context;
+import org.traccar.helper.LongSet;
+import org.traccar.helper.LongSetMap;
 import org.traccar.model.Attribute;
 import org.traccar.model.BaseModel;
 import org.traccar.model.Calendar;
@@ -52,10 +54,14 @@ public class PermissionsManager {
 
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
-    private final Map<Long, Set<Long>> groupPermissions = new HashMap<>();
-    private final Map<Long, Set<Long>> devicePermissions = new HashMap<>();
-    private final Map<Long, Set<Long>> deviceUsers = new HashMap<>();
-    private final Map<Long, Set<Long>> groupDevices = new HashMap<>();
+    private volatile LongSetMap userGroups = LongSetMap.EMPTY;
+    private volatile LongSetMap userDevices = LongSetMap.EMPTY;
+    private volatile LongSetMap groupGroups = LongSetMap.EMPTY;
+
+    private volatile LongSetMap groupPermissions = LongSetMap.EMPTY;
+    private volatile LongSetMap devicePermissions = LongSetMap.EMPTY;
+    private volatile LongSetMap deviceUsers = LongSetMap.EMPTY;
+    private volatile LongSetMap groupDevices = LongSetMap.EMPTY;
 
     public PermissionsManager(DataManager dataManager, UsersManager usersManager) {
         this.dataManager = dataManager;
@@ -64,14 +70,6 @@ public class PermissionsManager {
         refreshDeviceAndGroupPermissions();
     }
 
-    protected final void readLock() {
-        lock.readLock().lock();
-    }
-
-    protected final void readUnlock() {
-        lock.readLock().unlock();
-    }
-
     protected final void writeLock() {
         lock.writeLock().lock();
     }
@@ -81,48 +79,19 @@ public class PermissionsManager {
     }
 
     public User getUser(long userId) {
-        readLock();
-        try {
-            return usersManager.getById(userId);
-        } finally {
-            readUnlock();
-        }
+        return usersManager.getById(userId);
     }
 
-    public Set<Long> getGroupPermissions(long userId) {
-        readLock();
-        try {
-            if (!groupPermissions.containsKey(userId)) {
-                groupPermissions.put(userId, new HashSet<>());
-            }
-            return groupPermissions.get(userId);
-        } finally {
-            readUnlock();
-        }
+    public LongSet getGroupPermissions(long userId) {
+        return groupPermissions.get(userId);
     }
 
-    public Set<Long> getDevicePermissions(long userId) {
-        readLock();
-        try {
-            if (!devicePermissions.containsKey(userId)) {
-                devicePermissions.put(userId, new HashSet<>());
-            }
-            return devicePermissions.get(userId);
-        } finally {
-            readUnlock();
-        }
+    public LongSet getDevicePermissions(long userId) {
+        return devicePermissions.get(userId);
     }
 
-    private Set<Long> getAllDeviceUsers(long deviceId) {
-        readLock();
-        try {
-            if (!deviceUsers.containsKey(deviceId)) {
-                deviceUsers.put(deviceId, new HashSet<>());
-            }
-            return deviceUsers.get(deviceId);
-        } finally {
-            readUnlock();
-        }
+    private LongSet getAllDeviceUsers(long deviceId) {
+        return deviceUsers.get(deviceId);
     }
 
     public Set<Long> getDeviceUsers(long deviceId) {
@@ -140,71 +109,169 @@ public class PermissionsManager {
         }
     }
 
-    public Set<Long> getGroupDevices(long groupId) {
-        readLock();
-        try {
-            if (!groupDevices.containsKey(groupId)) {
-                groupDevices.put(groupId, new HashSet<>());
-            }
-            return groupDevices.get(groupId);
-        } finally {
-            readUnlock();
-        }
+    public LongSet getGroupDevices(long groupId) {
+        return groupDevices.get(groupId);
     }
 
     public void refreshServer() {
         try {
             server = dataManager.getServer();
+            if (Context.getDeviceManager() != null) {
+                Context.getDeviceManager().resetAttributesCache();
+            }
         } catch (SQLException error) {
             LOGGER.warn("Refresh server config error", error);
         }
     }
 
+    private static LongSet getUserGroups(LongSet linkedGroups, LongSetMap groupGroups) {
+        LongSet.Builder result = new LongSet.Builder();
+        linkedGroups.forEachLong(groupId -> result.add(groupId).addAll(groupGroups.get(groupId)));
+        return result.build();
+    }
+
+    private static LongSet getUserDevices(LongSet linkedGroups, LongSet linkedDevices, LongSetMap groupDevices) {
+        LongSet.Builder result = new LongSet.Builder();
+        linkedGroups.forEachLong(groupId -> result.addAll(groupDevices.get(groupId)));
+        return result.addAll(linkedDevices).build();
+    }
+
     public final void refreshDeviceAndGroupPermissions() {
         writeLock();
         try {
-            groupPermissions.clear();
-            devicePermissions.clear();
-            try {
-                GroupTree groupTree = new GroupTree(Context.getGroupsManager().getItems(
-                        Context.getGroupsManager().getAllItems()),
-                        Context.getDeviceManager().getAllDevices());
-                for (Permission groupPermission : dataManager.getPermissions(User.class, Group.class)) {
-                    Set<Long> userGroupPermissions = getGroupPermissions(groupPermission.getOwnerId());
-                    Set<Long> userDevicePermissions = getDevicePermissions(groupPermission.getOwnerId());
-                    userGroupPermissions.add(groupPermission.getPropertyId());
-                    for (Group group : groupTree.getGroups(groupPermission.getPropertyId())) {
-                        userGroupPermissions.add(group.getId());
-                    }
-                    for (Device device : groupTree.getDevices(groupPermission.getPropertyId())) {
-                        userDevicePermissions.add(device.getId());
-                    }
-                }
+            GroupTree groupTree = new GroupTree(Context.getGroupsManager().getItems(
+                    Context.getGroupsManager().getAllItems()),
+                    Context.getDeviceManager().getAllDevices());
+            LongSetMap.Builder groupGroupsBuilder = new LongSetMap.Builder();
+            LongSetMap.Builder groupDevicesBuilder = new LongSetMap.Builder();
+            for (long groupId : Context.getGroupsManager().getAllItems()) {
+                groupGroupsBuilder.put(groupId, groupTree.getGroups(groupId));
+                groupDevicesBuilder.put(groupId, groupTree.getDevices(groupId));
+            }
+            LongSetMap newGroupGroups = groupGroupsBuilder.build();
+            LongSetMap newGroupDevices = groupDevicesBuilder.build();
 
-                for (Permission devicePermission : dataManager.getPermissions(User.class, Device.class)) {
-                    getDevicePermissions(devicePermission.getOwnerId()).add(devicePermission.getPropertyId());
-                }
+            LongSetMap.Builder userGroupsBuilder = new LongSetMap.Builder();
+            for (Permission groupPermission : dataManager.getPermissions(User.class, Group.class)) {
+                userGroupsBuilder.add(groupPermission.getOwnerId(), groupPermission.getPropertyId());
+            }
+            LongSetMap newUserGroups = userGroupsBuilder.build();
 
-                groupDevices.clear();
-                for (long groupId : Context.getGroupsManager().getAllItems()) {
-                    for (Device device : groupTree.getDevices(groupId)) {
-                        getGroupDevices(groupId).add(device.getId());
-                    }
-                }
+            LongSetMap.Builder userDevicesBuilder = new LongSetMap.Builder();
+            for (Permission devicePermission : dataManager.getPermissions(User.class, Device.class)) {
+                userDevicesBuilder.add(devicePermission.getOwnerId(), devicePermission.getPropertyId());
+            }
+            LongSetMap newUserDevices = userDevicesBuilder.build();
+
+            LongSetMap.Builder groupPermissionsBuilder = new LongSetMap.Builder();
+            newUserGroups.forEach((userId, groupIds) -> groupPermissionsBuilder.put(
+                    userId, getUserGroups(groupIds, newGroupGroups)));
+
+            LongSetMap.Builder devicePermissionsBuilder = new LongSetMap.Builder();
+            newUserGroups.forEach((userId, groupIds) -> devicePermissionsBuilder.put(
+                    userId, getUserDevices(groupIds, newUserDevices.get(userId), newGroupDevices)));
+            newUserDevices.forEach((userId, deviceIds) -> devicePermissionsBuilder.put(
+                    userId, getUserDevices(newUserGroups.get(userId), deviceIds, newGroupDevices)));
+            LongSetMap newDevicePermissions = devicePermissionsBuilder.build();
+
+            LongSetMap.Builder deviceUsersBuilder = new LongSetMap.Builder();
+            newDevicePermissions.forEach((userId, deviceIds) -> deviceIds.forEachLong(
+                    deviceId -> deviceUsersBuilder.add(deviceId, userId)));
+
+            groupGroups = newGroupGroups;
+            groupDevices = newGroupDevices;
+            userGroups = newUserGroups;
+            userDevices = newUserDevices;
+            groupPermissions = groupPermissionsBuilder.build();
+            devicePermissions = newDevicePermissions;
+            deviceUsers = deviceUsersBuilder.build();
+        } catch (SQLException | ClassNotFoundException error) {
+            LOGGER.warn("Refresh device permissions error", error);
+        } finally {
+            writeUnlock();
+        }
+        if (Context.getNotificationManager() != null) {
+            Context.getNotificationManager().invalidateRoutes();
+        }
+    }
 
-            } catch (SQLException | ClassNotFoundException error) {
-                LOGGER.warn("Refresh device permissions error", error);
+    /**
+     * Apply a single added or removed user device or group link. Only permissions of the link owner and users of the
+     * affected devices are recalculated.
+     */
+    private void updateUserPermissions(long userId, Class<?> propertyClass, long propertyId, boolean link) {
+        LongSet.Builder changedDevices = new LongSet.Builder();
+        writeLock();
+        try {
+            if (propertyClass.equals(Device.class)) {
+                LongSet linkedDevices = userDevices.get(userId);
+                userDevices = userDevices.with(
+                        userId, link ? linkedDevices.with(propertyId) : linkedDevices.without(propertyId));
+            } else {
+                LongSet linkedGroups = userGroups.get(userId);
+                userGroups = userGroups.with(
+                        userId, link ? linkedGroups.with(propertyId) : linkedGroups.without(propertyId));
             }
 
-            deviceUsers.clear();
-            for (Map.Entry<Long, Set<Long>> entry : devicePermissions.entrySet()) {
-                for (long deviceId : entry.getValue()) {
-                    getAllDeviceUsers(deviceId).add(entry.getKey());
+            LongSet oldDevices = devicePermissions.get(userId);
+            LongSet newDevices = getUserDevices(userGroups.get(userId), userDevices.get(userId), groupDevices);
+            groupPermissions = groupPermissions.with(userId, getUserGroups(userGroups.get(userId), groupGroups));
+            devicePermissions = devicePermissions.with(userId, newDevices);
+
+            Map<Long, LongSet> changes = new HashMap<>();
+            oldDevices.forEachLong(deviceId -> {
+                if (!newDevices.contains(deviceId)) {
+                    changes.put(deviceId, deviceUsers.get(deviceId).without(userId));
+                }
+            });
+            newDevices.forEachLong(deviceId -> {
+                if (!oldDevices.contains(deviceId)) {
+                    changes.put(deviceId, deviceUsers.get(deviceId).with(userId));
                 }
+            });
+            deviceUsers = deviceUsers.withAll(changes);
+            changes.keySet().forEach(changedDevices::add);
+        } finally {
+            writeUnlock();
+        }
+        if (Context.getNotificationManager() != null) {
+            Context.getNotificationManager().invalidateRoutes(changedDevices.build());
+        }
+    }
+
+    /**
+     * Add a new device to the permissions of its group and all parent groups, and to the users linked to any of them.
+     */
+    public void addGroupDevice(Device device) {
+        writeLock();
+        try {
+            Map<Long, LongSet> groupChanges = new HashMap<>();
+            Group group = Context.getGroupsManager().getById(device.getGroupId());
+            while (group != null && !groupChanges.containsKey(group.getId())) {
+                groupChanges.put(group.getId(), groupDevices.get(group.getId()).with(device.getId()));
+                group = group.getGroupId() != 0 ? Context.getGroupsManager().getById(group.getGroupId()) : null;
             }
+            if (groupChanges.isEmpty()) {
+                return;
+            }
+            groupDevices = groupDevices.withAll(groupChanges);
+
+            Map<Long, LongSet> userChanges = new HashMap<>();
+            LongSet.Builder users = new LongSet.Builder().addAll(deviceUsers.get(device.getId()));
+            groupPermissions.forEach((userId, groupIds) -> {
+                if (groupIds.contains(device.getGroupId())) {
+                    userChanges.put(userId, devicePermissions.get(userId).with(device.getId()));
+                    users.add(userId);
+                }
+            });
+            devicePermissions = devicePermissions.withAll(userChanges);
+            deviceUsers = deviceUsers.with(device.getId(), users.build());
         } finally {
             writeUnlock();
         }
+        if (Context.getNotificationManager() != null) {
+            Context.getNotificationManager().invalidateRoutes(LongSet.of(device.getId()));
+        }
     }
 
     public boolean getUserAdmin(long userId) {
@@ -434,6 +501,16 @@ public class PermissionsManager {
         Context.getMaintenancesManager().refreshExtendedPermissions();
     }
 
+    public void addDeviceToAllExtendedPermissions(long deviceId) {
+        if (Context.getGeofenceManager() != null) {
+            Context.getGeofenceManager().addDevice(deviceId);
+        }
+        Context.getDriversManager().addDevice(deviceId);
+        Context.getAttributesManager().addDevice(deviceId);
+        Context.getCommandsManager().addDevice(deviceId);
+        Context.getMaintenancesManager().addDevice(deviceId);
+    }
+
     public void refreshPermissions(Permission permission) {
         if (permission.getOwnerClass().equals(User.class)) {
             if (permission.getPropertyClass().equals(Device.class)
@@ -476,6 +553,38 @@ public class PermissionsManager {
         }
     }
 
+    /**
+     * Apply a single added or removed permission to the cached permissions without reloading all of them.
+     */
+    @SuppressWarnings("unchecked")
+    public void updatePermission(Permission permission, boolean link) {
+        Class<?> ownerClass = permission.getOwnerClass();
+        Class<?> propertyClass = permission.getPropertyClass();
+        long ownerId = permission.getOwnerId();
+        long propertyId = permission.getPropertyId();
+        if (ownerClass.equals(User.class)) {
+            if (propertyClass.equals(Device.class) || propertyClass.equals(Group.class)) {
+                updateUserPermissions(ownerId, propertyClass, propertyId, link);
+            } else if (propertyClass.equals(ManagedUser.class)) {
+                usersManager.updateUserItem(ownerId, propertyId, link);
+            } else {
+                BaseObjectManager<?> manager = Context.getManager((Class<? extends BaseModel>) propertyClass);
+                if (manager instanceof SimpleObjectManager) {
+                    ((SimpleObjectManager<?>) manager).updateUserItem(ownerId, propertyId, link);
+                }
+            }
+        } else if (ownerClass.equals(Device.class) || ownerClass.equals(Group.class)) {
+            BaseObjectManager<?> manager = Context.getManager((Class<? extends BaseModel>) propertyClass);
+            if (manager instanceof ExtendedObjectManager) {
+                ((ExtendedObjectManager<?>) manager).updateExtendedPermission(ownerClass, ownerId, propertyId, link);
+            } else {
+                refreshPermissions(permission);
+            }
+        } else {
+            refreshPermissions(permission);
+        }
+    }
+
     public Server getServer() {
         return server;
     }
@@ -483,6 +592,9 @@ public class PermissionsManager {
     public void updateServer(Server server) throws SQLException {
         dataManager.updateObject(server);
         this.server = server;
+        if (Context.getDeviceManager() != null) {
+            Context.getDeviceManager().resetAttributesCache();
+        }
     }
 
     public User login(String email, String password) throws SQLException {
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 - 2020 Anton Tananaev (anton@traccar.org)
+ * Copyright 2015 - 2021 Anton Tananaev (anton@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -22,7 +22,6 @@ import org.traccar.Context;
 import org.traccar.model.Permission;
 
 import javax.sql.DataSource;
-import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.sql.Connection;
@@ -33,19 +32,44 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public final class QueryBuilder {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(QueryBuilder.class);
 
-    private final Map<String, List<Integer>> indexMap = new HashMap<>();
+    private static final int[] NO_INDEXES = new int[0];
+
+    private static final Map<String, ParsedQuery> PARSED_QUERIES = new ConcurrentHashMap<>();
+
+    private static final class ParsedQuery {
+
+        private final String query;
+        private final Map<String, int[]> indexMap;
+
+        private ParsedQuery(String query, Map<String, int[]> indexMap) {
+            this.query = query;
+            this.indexMap = indexMap;
+        }
+
+    }
+
+    private final Map<String, int[]> indexMap;
     private Connection connection;
     private PreparedStatement statement;
     private final String query;
@@ -55,22 +79,27 @@ public final class QueryBuilder {
         this.query = query;
         this.returnGeneratedKeys = returnGeneratedKeys;
         if (query != null) {
+            ParsedQuery parsedQuery = PARSED_QUERIES.computeIfAbsent(query, key -> parse(key.trim()));
+            indexMap = parsedQuery.indexMap;
             connection = dataSource.getConnection();
-            String parsedQuery = parse(query.trim(), indexMap);
             try {
                 if (returnGeneratedKeys) {
-                    statement = connection.prepareStatement(parsedQuery, Statement.RETURN_GENERATED_KEYS);
+                    statement = connection.prepareStatement(parsedQuery.query, Statement.RETURN_GENERATED_KEYS);
                 } else {
-                    statement = connection.prepareStatement(parsedQuery);
+                    statement = connection.prepareStatement(parsedQuery.query);
                 }
             } catch (SQLException error) {
                 connection.close();
                 throw error;
             }
+        } else {
+            indexMap = Collections.emptyMap();
         }
     }
 
-    private static String parse(String query, Map<String, List<Integer>> paramMap) {
+    private static ParsedQuery parse(String query) {
+
+        Map<String, List<Integer>> paramMap = new HashMap<>();
 
         int length = query.length();
         StringBuilder parsedQuery = new StringBuilder(length);
@@ -113,7 +142,7 @@ public final class QueryBuilder {
                     name = name.toLowerCase();
 
                     // Add to list
-                    List<Integer> indexList = paramMap.computeIfAbsent(name, k -> new LinkedList<>());
+                    List<Integer> indexList = paramMap.computeIfAbsent(name, k -> new ArrayList<>());
                     indexList.add(index);
 
                     index++;
@@ -123,7 +152,12 @@ public final class QueryBuilder {
             parsedQuery.append(c);
         }
 
-        return parsedQuery.toString();
+        Map<String, int[]> indexMap = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> entry : paramMap.entrySet()) {
+            indexMap.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        return new ParsedQuery(parsedQuery.toString(), indexMap);
     }
 
     public static QueryBuilder create(DataSource dataSource, String query) throws SQLException {
@@ -135,13 +169,8 @@ public final class QueryBuilder {
         return new QueryBuilder(dataSource, query, returnGeneratedKeys);
     }
 
-    private List<Integer> indexes(String name) {
-        name = name.toLowerCase();
-        List<Integer> result = indexMap.get(name);
-        if (result == null) {
-            result = new LinkedList<>();
-        }
-        return result;
+    private int[] indexes(String name) {
+        return indexMap.getOrDefault(name.toLowerCase(), NO_INDEXES);
     }
 
     public QueryBuilder setBoolean(String name, boolean value) throws SQLException {
@@ -290,10 +319,6 @@ public final class QueryBuilder {
         return this;
     }
 
-    private interface ResultSetProcessor<T> {
-        void process(T object, ResultSet resultSet) throws SQLException;
-    }
-
     public <T> T executeQuerySingle(Class<T> clazz) throws SQLException {
         Collection<T> result = executeQuery(clazz);
         if (!result.isEmpty()) {
@@ -303,140 +328,91 @@ public final class QueryBuilder {
         }
     }
 
-    private <T> void addProcessors(
-            List<ResultSetProcessor<T>> processors,
-            final Class<?> parameterType, final Method method, final String name) {
-
-        if (parameterType.equals(boolean.class)) {
-            processors.add((object, resultSet) -> {
-                try {
-                    method.invoke(object, resultSet.getBoolean(name));
-                } catch (IllegalAccessException | InvocationTargetException error) {
-                    LOGGER.warn("Set property error", error);
-                }
-            });
-        } else if (parameterType.equals(int.class)) {
-            processors.add((object, resultSet) -> {
-                try {
-                    method.invoke(object, resultSet.getInt(name));
-                } catch (IllegalAccessException | InvocationTargetException error) {
-                    LOGGER.warn("Set property error", error);
-                }
-            });
-        } else if (parameterType.equals(long.class)) {
-            processors.add((object, resultSet) -> {
-                try {
-                    method.invoke(object, resultSet.getLong(name));
-                } catch (IllegalAccessException | InvocationTargetException error) {
-                    LOGGER.warn("Set property error", error);
-                }
-            });
-        } else if (parameterType.equals(double.class)) {
-            processors.add((object, resultSet) -> {
-                try {
-                    method.invoke(object, resultSet.getDouble(name));
-                } catch (IllegalAccessException | InvocationTargetException error) {
-                    LOGGER.warn("Set property error", error);
-                }
-            });
-        } else if (parameterType.equals(String.class)) {
-            processors.add((object, resultSet) -> {
-                try {
-                    method.invoke(object, resultSet.getString(name));
-                } catch (IllegalAccessException | InvocationTargetException error) {
-                    LOGGER.warn("Set property error", error);
-                }
-            });
-        } else if (parameterType.equals(Date.class)) {
-            processors.add((object, resultSet) -> {
-                try {
-                    Timestamp timestamp = resultSet.getTimestamp(name);
-                    if (timestamp != null) {
-                        method.invoke(object, new Date(timestamp.getTime()));
-                    }
-                } catch (IllegalAccessException | InvocationTargetException error) {
-                    LOGGER.warn("Set property error", error);
-                }
-            });
-        } else if (parameterType.equals(byte[].class)) {
-            processors.add((object, resultSet) -> {
-                try {
-                    method.invoke(object, resultSet.getBytes(name));
-                } catch (IllegalAccessException | InvocationTargetException error) {
-                    LOGGER.warn("Set property error", error);
-                }
-            });
-        } else {
-            processors.add((object, resultSet) -> {
-                String value = resultSet.getString(name);
-                if (value != null && !value.isEmpty()) {
-                    try {
-                        method.invoke(object, Context.getObjectMapper().readValue(value, parameterType));
-                    } catch (InvocationTargetException | IllegalAccessException | IOException error) {
-                        LOGGER.warn("Set property error", error);
-                    }
-                }
-            });
-        }
-    }
-
     public <T> Collection<T> executeQuery(Class<T> clazz) throws SQLException {
-        List<T> result = new LinkedList<>();
+        List<T> result = new ArrayList<>();
 
         if (query != null) {
 
             try {
 
                 try (ResultSet resultSet = statement.executeQuery()) {
+                    result = RowMapper.get(clazz, resultSet.getMetaData()).mapAll(resultSet);
+                }
 
-                    ResultSetMetaData resultMetaData = resultSet.getMetaData();
+            } finally {
+                statement.close();
+                connection.close();
+            }
+        }
 
-                    List<ResultSetProcessor<T>> processors = new LinkedList<>();
+        return result;
+    }
 
-                    Method[] methods = clazz.getMethods();
+    /**
+     * Execute query and map rows lazily while the returned stream is consumed. Stream holds the connection until it
+     * is closed, so it should always be used in try-with-resources block.
+     */
+    public <T> Stream<T> executeQueryStream(Class<T> clazz, int fetchSize) throws SQLException {
+        if (query == null) {
+            return Stream.empty();
+        }
 
-                    for (final Method method : methods) {
-                        if (method.getName().startsWith("set") && method.getParameterTypes().length == 1
-                                && !method.isAnnotationPresent(QueryIgnore.class)) {
+        ResultSet resultSet;
+        RowMapper<T> mapper;
+        try {
+            connection.setAutoCommit(false); // required for cursor based fetching in some drivers
+            statement.setFetchSize(fetchSize);
+            resultSet = statement.executeQuery();
+            mapper = RowMapper.get(clazz, resultSet.getMetaData());
+        } catch (SQLException error) {
+            statement.close();
+            connection.close();
+            throw error;
+        }
 
-                            final String name = method.getName().substring(3);
+        Iterator<T> iterator = new Iterator<T>() {
 
-                            // Check if column exists
-                            boolean column = false;
-                            for (int i = 1; i <= resultMetaData.getColumnCount(); i++) {
-                                if (name.equalsIgnoreCase(resultMetaData.getColumnLabel(i))) {
-                                    column = true;
-                                    break;
-                                }
-                            }
-                            if (!column) {
-                                continue;
-                            }
+            private Boolean hasNext;
 
-                            addProcessors(processors, method.getParameterTypes()[0], method, name);
-                        }
+            @Override
+            public boolean hasNext() {
+                if (hasNext == null) {
+                    try {
+                        hasNext = resultSet.next();
+                    } catch (SQLException error) {
+                        throw new RuntimeException(error);
                     }
+                }
+                return hasNext;
+            }
 
-                    while (resultSet.next()) {
-                        try {
-                            T object = clazz.getDeclaredConstructor().newInstance();
-                            for (ResultSetProcessor<T> processor : processors) {
-                                processor.process(object, resultSet);
-                            }
-                            result.add(object);
-                        } catch (ReflectiveOperationException e) {
-                            throw new IllegalArgumentException();
-                        }
-                    }
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
                 }
+                hasNext = null;
+                try {
+                    return mapper.map(resultSet);
+                } catch (SQLException error) {
+                    throw new RuntimeException(error);
+                }
+            }
 
-            } finally {
+        };
+
+        Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(
+                iterator, Spliterator.ORDERED | Spliterator.NONNULL);
+
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                resultSet.close();
                 statement.close();
                 connection.close();
+            } catch (SQLException error) {
+                LOGGER.warn("Close query error", error);
             }
-        }
-
-        return result;
+        });
     }
 
     public long executeUpdate() throws SQLException {
@@ -458,6 +434,60 @@ public final class QueryBuilder {
         return 0;
     }
 
+    public QueryBuilder addBatch() throws SQLException {
+        if (query != null) {
+            try {
+                statement.addBatch();
+            } catch (SQLException error) {
+                statement.close();
+                connection.close();
+                throw error;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Execute batch and return generated keys. With generated keys requested, the batch is executed in a transaction,
+     * which is rolled back if the driver doesn't return a key for every row, so the caller can safely retry.
+     */
+    public long[] executeBatch(int count) throws SQLException {
+        long[] result = new long[count];
+        if (query != null) {
+            try {
+                if (returnGeneratedKeys) {
+                    connection.setAutoCommit(false);
+                }
+                statement.executeBatch();
+                if (returnGeneratedKeys) {
+                    int keys = 0;
+                    try (ResultSet resultSet = statement.getGeneratedKeys()) {
+                        while (keys < count && resultSet.next()) {
+                            result[keys++] = resultSet.getLong(1);
+                        }
+                    }
+                    if (keys != count) {
+                        throw new SQLException("Batch returned " + keys + " generated keys for " + count + " rows");
+                    }
+                    connection.commit();
+                }
+            } catch (SQLException | RuntimeException error) {
+                if (returnGeneratedKeys) {
+                    try {
+                        connection.rollback();
+                    } catch (SQLException rollbackError) {
+                        error.addSuppressed(rollbackError);
+                    }
+                }
+                throw error;
+            } finally {
+                statement.close();
+                connection.close();
+            }
+        }
+        return result;
+    }
+
     public Collection<Permission> executePermissionsQuery() throws SQLException, ClassNotFoundException {
         List<Permission> result = new LinkedList<>();
         if (query != null) {
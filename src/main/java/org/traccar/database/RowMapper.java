@@ -0,0 +1,194 @@
+/*
+ * Copyright 2021 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.traccar.Context;
+
+import java.io.IOException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Maps result set rows to model objects. Mappers are cached per class and column layout, so setters are resolved
+ * and compiled into lambdas only once and columns are read by index.
+ */
+final class RowMapper<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RowMapper.class);
+
+    private static final Map<Class<?>, Map<String, RowMapper<?>>> CACHE = new ConcurrentHashMap<>();
+
+    private interface ColumnProcessor {
+        void process(Object object, ResultSet resultSet) throws SQLException;
+    }
+
+    private final Supplier<T> factory;
+    private final ColumnProcessor[] processors;
+
+    private RowMapper(Supplier<T> factory, ColumnProcessor[] processors) {
+        this.factory = factory;
+        this.processors = processors;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> RowMapper<T> get(Class<T> clazz, ResultSetMetaData metaData) throws SQLException {
+        String[] columns = new String[metaData.getColumnCount()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = metaData.getColumnLabel(i + 1);
+        }
+        return (RowMapper<T>) CACHE
+                .computeIfAbsent(clazz, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(String.join(",", columns), k -> create(clazz, columns));
+    }
+
+    public T map(ResultSet resultSet) throws SQLException {
+        T object = factory.get();
+        for (ColumnProcessor processor : processors) {
+            try {
+                processor.process(object, resultSet);
+            } catch (SQLException error) {
+                throw error;
+            } catch (Exception error) {
+                LOGGER.warn("Set property error", error);
+            }
+        }
+        return object;
+    }
+
+    public List<T> mapAll(ResultSet resultSet) throws SQLException {
+        List<T> result = new ArrayList<>();
+        while (resultSet.next()) {
+            result.add(map(resultSet));
+        }
+        return result;
+    }
+
+    private static <T> RowMapper<T> create(Class<T> clazz, String[] columns) {
+        List<ColumnProcessor> processors = new ArrayList<>();
+        for (Method method : clazz.getMethods()) {
+            if (method.getName().startsWith("set") && method.getParameterTypes().length == 1
+                    && !method.isAnnotationPresent(QueryIgnore.class)) {
+                String name = method.getName().substring(3);
+                for (int i = 0; i < columns.length; i++) {
+                    if (name.equalsIgnoreCase(columns[i])) {
+                        processors.add(createProcessor(method, i + 1));
+                        break;
+                    }
+                }
+            }
+        }
+        return new RowMapper<>(createFactory(clazz), processors.toArray(new ColumnProcessor[0]));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Supplier<T> createFactory(Class<T> clazz) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle handle = lookup.findConstructor(clazz, MethodType.methodType(void.class));
+            return (Supplier<T>) LambdaMetafactory.metafactory(
+                    lookup, "get", MethodType.methodType(Supplier.class),
+                    MethodType.methodType(Object.class), handle, handle.type()).getTarget().invoke();
+        } catch (Throwable e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static Object createSetter(Method method, Class<?> type, String name, MethodType samType) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle handle = lookup.unreflect(method);
+            MethodType instantiatedType = handle.type();
+            if (!samType.parameterType(1).isPrimitive()) {
+                instantiatedType = instantiatedType.changeParameterType(1, instantiatedType.wrap().parameterType(1));
+            }
+            return LambdaMetafactory.metafactory(
+                    lookup, name, MethodType.methodType(type), samType, handle, instantiatedType)
+                    .getTarget().invoke();
+        } catch (Throwable e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ColumnProcessor createProcessor(Method method, int index) {
+        Class<?> parameterType = method.getParameterTypes()[0];
+        if (parameterType.equals(int.class)) {
+            ObjIntConsumer<Object> setter = (ObjIntConsumer<Object>) createSetter(
+                    method, ObjIntConsumer.class, "accept",
+                    MethodType.methodType(void.class, Object.class, int.class));
+            return (object, resultSet) -> setter.accept(object, resultSet.getInt(index));
+        } else if (parameterType.equals(long.class)) {
+            ObjLongConsumer<Object> setter = (ObjLongConsumer<Object>) createSetter(
+                    method, ObjLongConsumer.class, "accept",
+                    MethodType.methodType(void.class, Object.class, long.class));
+            return (object, resultSet) -> setter.accept(object, resultSet.getLong(index));
+        } else if (parameterType.equals(double.class)) {
+            ObjDoubleConsumer<Object> setter = (ObjDoubleConsumer<Object>) createSetter(
+                    method, ObjDoubleConsumer.class, "accept",
+                    MethodType.methodType(void.class, Object.class, double.class));
+            return (object, resultSet) -> setter.accept(object, resultSet.getDouble(index));
+        }
+
+        BiConsumer<Object, Object> setter = (BiConsumer<Object, Object>) createSetter(
+                method, BiConsumer.class, "accept",
+                MethodType.methodType(void.class, Object.class, Object.class));
+        if (parameterType.equals(boolean.class)) {
+            return (object, resultSet) -> setter.accept(object, resultSet.getBoolean(index));
+        } else if (parameterType.equals(String.class)) {
+            return (object, resultSet) -> setter.accept(object, resultSet.getString(index));
+        } else if (parameterType.equals(Date.class)) {
+            return (object, resultSet) -> {
+                Timestamp timestamp = resultSet.getTimestamp(index);
+                if (timestamp != null) {
+                    setter.accept(object, new Date(timestamp.getTime()));
+                }
+            };
+        } else if (parameterType.equals(byte[].class)) {
+            return (object, resultSet) -> setter.accept(object, resultSet.getBytes(index));
+        } else {
+            return (object, resultSet) -> {
+                String value = resultSet.getString(index);
+                if (value != null && !value.isEmpty()) {
+                    try {
+                        setter.accept(object, Context.getObjectMapper().readValue(value, parameterType));
+                    } catch (IOException error) {
+                        LOGGER.warn("Set property error", error);
+                    }
+                }
+            };
+        }
+    }
+
+}
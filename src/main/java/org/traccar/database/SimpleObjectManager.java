@@ -1,5 +1,5 @@
 /*
- * Copyright 2017 - 2020 Anton Tananaev (anton@traccar.org)
+ * Copyright 2017 - 2021 Anton Tananaev (anton@traccar.org)
  * Copyright 2017 Andrey Kunitsyn (andrey@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -18,13 +18,13 @@ package org.traccar.database;
 
 import java.sql.SQLException;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.traccar.Context;
+import org.traccar.helper.LongSet;
+import org.traccar.helper.LongSetMap;
 import org.traccar.model.BaseModel;
 import org.traccar.model.Permission;
 import org.traccar.model.User;
@@ -34,30 +34,21 @@ public abstract class SimpleObjectManager<T extends BaseModel> extends BaseObjec
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SimpleObjectManager.class);
 
-    private Map<Long, Set<Long>> userItems;
+    private volatile LongSetMap userItems;
 
     protected SimpleObjectManager(DataManager dataManager, Class<T> baseClass) {
         super(dataManager, baseClass);
     }
 
     @Override
-    public final Set<Long> getUserItems(long userId) {
-        try {
-            readLock();
-            Set<Long> result = userItems.get(userId);
-            if (result != null) {
-                return new HashSet<>(result);
-            } else {
-                return new HashSet<>();
-            }
-        } finally {
-            readUnlock();
-        }
+    public final LongSet getUserItems(long userId) {
+        LongSetMap currentUserItems = userItems;
+        return currentUserItems != null ? currentUserItems.get(userId) : LongSet.EMPTY;
     }
 
     @Override
     public Set<Long> getManagedItems(long userId) {
-        Set<Long> result = getUserItems(userId);
+        Set<Long> result = new HashSet<>(getUserItems(userId));
         for (long managedUserId : Context.getUsersManager().getUserItems(userId)) {
             result.addAll(getUserItems(managedUserId));
         }
@@ -74,15 +65,15 @@ public abstract class SimpleObjectManager<T extends BaseModel> extends BaseObjec
         refreshUserItems();
     }
 
-    public final void refreshUserItems() {
+    public void refreshUserItems() {
         if (getDataManager() != null) {
             try {
                 writeLock();
-                userItems = new ConcurrentHashMap<>();
+                LongSetMap.Builder newUserItems = new LongSetMap.Builder();
                 for (Permission permission : getDataManager().getPermissions(User.class, getBaseClass())) {
-                    Set<Long> items = userItems.computeIfAbsent(permission.getOwnerId(), key -> new HashSet<>());
-                    items.add(permission.getPropertyId());
+                    newUserItems.add(permission.getOwnerId(), permission.getPropertyId());
                 }
+                userItems = newUserItems.build();
             } catch (SQLException | ClassNotFoundException error) {
                 LOGGER.warn("Error getting permissions", error);
             } finally {
@@ -91,6 +82,27 @@ public abstract class SimpleObjectManager<T extends BaseModel> extends BaseObjec
         }
     }
 
+    /**
+     * Apply a single added or removed user link without reloading all permissions.
+     */
+    public final void updateUserItem(long userId, long itemId, boolean link) {
+        try {
+            writeLock();
+            LongSetMap currentUserItems = userItems != null ? userItems : LongSetMap.EMPTY;
+            LongSet items = currentUserItems.get(userId);
+            userItems = currentUserItems.with(userId, link ? items.with(itemId) : items.without(itemId));
+        } finally {
+            writeUnlock();
+        }
+        refreshUsers(LongSet.of(userId));
+    }
+
+    /**
+     * Called after items of some users are updated incrementally.
+     */
+    protected void refreshUsers(LongSet userIds) {
+    }
+
     @Override
     public void removeItem(long itemId) throws SQLException {
         super.removeItem(itemId);
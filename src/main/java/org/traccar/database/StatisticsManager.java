@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 - 2020 Anton Tananaev (anton@traccar.org)
+ * Copyright 2016 - 2021 Anton Tananaev (anton@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -60,6 +60,8 @@ public class StatisticsManager {
     private int smsSent;
     private int geocoderRequests;
     private int geolocationRequests;
+    private int sessionCacheHits;
+    private int sessionCacheMisses;
 
     @Inject
     public StatisticsManager(Config config, DataManager dataManager, Client client, ObjectMapper objectMapper) {
@@ -85,6 +87,10 @@ public class StatisticsManager {
                 statistics.setSmsSent(smsSent);
                 statistics.setGeocoderRequests(geocoderRequests);
                 statistics.setGeolocationRequests(geolocationRequests);
+                if (sessionCacheHits > 0 || sessionCacheMisses > 0) {
+                    statistics.set("sessionCacheHits", sessionCacheHits);
+                    statistics.set("sessionCacheMisses", sessionCacheMisses);
+                }
                 if (!deviceProtocols.isEmpty()) {
                     Map<String, Integer> protocols = new HashMap<>();
                     for (String protocol : deviceProtocols.values()) {
@@ -102,6 +108,8 @@ public class StatisticsManager {
                 smsSent = 0;
                 geocoderRequests = 0;
                 geolocationRequests = 0;
+                sessionCacheHits = 0;
+                sessionCacheMisses = 0;
             }
 
             try {
@@ -180,4 +188,13 @@ public class StatisticsManager {
         geolocationRequests += 1;
     }
 
+    public synchronized void registerSessionCache(boolean hit) {
+        checkSplit();
+        if (hit) {
+            sessionCacheHits += 1;
+        } else {
+            sessionCacheMisses += 1;
+        }
+    }
+
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2017 - 2020 Anton Tananaev (anton@traccar.org)
+ * Copyright 2017 - 2021 Anton Tananaev (anton@traccar.org)
  * Copyright 2017 Andrey Kunitsyn (andrey@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -16,10 +16,12 @@
  */
 package org.traccar.database;
 
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.traccar.Context;
 import org.traccar.model.User;
 
 public class UsersManager extends SimpleObjectManager<User> {
@@ -56,6 +58,9 @@ public class UsersManager extends SimpleObjectManager<User> {
         if (cachedUser.getToken() != null && !cachedUser.getToken().equals(user.getToken())) {
             usersTokens.remove(cachedUser.getToken());
         }
+        if (cachedUser.getAdministrator() != user.getAdministrator() && Context.getNotificationManager() != null) {
+            Context.getNotificationManager().invalidateRoutes();
+        }
     }
 
     @Override
@@ -72,7 +77,7 @@ public class UsersManager extends SimpleObjectManager<User> {
 
     @Override
     public Set<Long> getManagedItems(long userId) {
-        Set<Long> result = getUserItems(userId);
+        Set<Long> result = new HashSet<>(getUserItems(userId));
         result.add(userId);
         return result;
     }
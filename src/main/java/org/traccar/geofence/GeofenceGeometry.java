@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 - 2020 Anton Tananaev (anton@traccar.org)
+ * Copyright 2016 - 2021 Anton Tananaev (anton@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,10 +15,15 @@
  */
 package org.traccar.geofence;
 
+import org.locationtech.jts.geom.Envelope;
+
 import java.text.ParseException;
 
 public abstract class GeofenceGeometry {
 
+    private static final double EARTH_RADIUS = 6378137; // meters, same as DistanceCalculator
+    private static final double ENVELOPE_MARGIN = 1.1;
+
     public abstract boolean containsPoint(double latitude, double longitude);
 
     public abstract double calculateArea();
@@ -27,6 +32,40 @@ public abstract class GeofenceGeometry {
 
     public abstract void fromWkt(String wkt) throws ParseException;
 
+    /**
+     * Bounding box with longitude as x and latitude as y. Every point for which {@link #containsPoint} returns true
+     * must be inside of the envelope.
+     */
+    public Envelope getEnvelope() {
+        return new Envelope(-180, 180, -90, 90);
+    }
+
+    /**
+     * Expand envelope by the distance in meters. Longitude range becomes unbounded if the expanded envelope reaches
+     * a pole or crosses the antimeridian.
+     */
+    protected static Envelope expandEnvelope(Envelope envelope, double distance) {
+        double angle = distance * ENVELOPE_MARGIN / EARTH_RADIUS;
+        double delta = Math.toDegrees(angle);
+        double minLat = envelope.getMinY() - delta;
+        double maxLat = envelope.getMaxY() + delta;
+        if (minLat <= -90 || maxLat >= 90) {
+            return new Envelope(-180, 180, Math.max(minLat, -90), Math.min(maxLat, 90));
+        }
+        double cos = Math.cos(Math.toRadians(Math.max(Math.abs(envelope.getMinY()), Math.abs(envelope.getMaxY()))));
+        double sin = Math.sin(angle);
+        if (sin >= cos) {
+            return new Envelope(-180, 180, minLat, maxLat);
+        }
+        double deltaLon = Math.toDegrees(Math.asin(sin / cos));
+        double minLon = envelope.getMinX() - deltaLon;
+        double maxLon = envelope.getMaxX() + deltaLon;
+        if (minLon < -180 || maxLon > 180) {
+            return new Envelope(-180, 180, minLat, maxLat);
+        }
+        return new Envelope(minLon, maxLon, minLat, maxLat);
+    }
+
     public static class Coordinate {
 
         private double lat;
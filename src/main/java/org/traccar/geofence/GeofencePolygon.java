@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 - 2020 Anton Tananaev (anton@traccar.org)
+ * Copyright 2016 - 2021 Anton Tananaev (anton@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,13 +15,13 @@
  */
 package org.traccar.geofence;
 
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.spatial4j.context.SpatialContext;
 import org.locationtech.spatial4j.context.jts.JtsSpatialContextFactory;
 import org.locationtech.spatial4j.shape.ShapeFactory;
 import org.locationtech.spatial4j.shape.jts.JtsShapeFactory;
 
 import java.text.ParseException;
-import java.util.ArrayList;
 
 import static org.locationtech.spatial4j.distance.DistanceUtils.DEG_TO_KM;
 
@@ -34,55 +34,120 @@ public class GeofencePolygon extends GeofenceGeometry {
         fromWkt(wkt);
     }
 
-    private ArrayList<Coordinate> coordinates;
+    /**
+     * Polygons with at least this number of vertices get an index of edges by longitude.
+     */
+    private static final int BUCKETS_THRESHOLD = 256;
+
+    private static final int BUCKET_SIZE = 8;
+
+    private double[] latitudes;
+    private double[] longitudes;
+    private double[] normalizedLongitudes;
 
     private double[] constant;
     private double[] multiple;
 
     private boolean needNormalize = false;
 
-    private void preCalculate() {
-        if (coordinates == null) {
-            return;
-        }
-
-        int polyCorners = coordinates.size();
-        int i;
-        int j = polyCorners - 1;
+    private double minLatitude;
+    private double maxLatitude;
+    private double minLongitude;
+    private double maxLongitude;
 
-        if (constant != null) {
-            constant = null;
-        }
-        if (multiple != null) {
-            multiple = null;
-        }
+    private double bucketWidth;
+    private int[] bucketOffsets;
+    private int[] bucketEdges;
 
-        constant = new double[polyCorners];
-        multiple = new double[polyCorners];
+    private void preCalculate() {
+        int polyCorners = latitudes.length;
 
         boolean hasNegative = false;
         boolean hasPositive = false;
-        for (i = 0; i < polyCorners; i++) {
-            if (coordinates.get(i).getLon() > 90) {
+        for (int i = 0; i < polyCorners; i++) {
+            if (longitudes[i] > 90) {
                 hasPositive = true;
-            } else if (coordinates.get(i).getLon() < -90) {
+            } else if (longitudes[i] < -90) {
                 hasNegative = true;
             }
         }
         needNormalize = hasPositive && hasNegative;
 
-        for (i = 0; i < polyCorners; j = i++) {
-            if (normalizeLon(coordinates.get(j).getLon()) == normalizeLon(coordinates.get(i).getLon())) {
-                constant[i] = coordinates.get(i).getLat();
+        normalizedLongitudes = new double[polyCorners];
+        for (int i = 0; i < polyCorners; i++) {
+            normalizedLongitudes[i] = normalizeLon(longitudes[i]);
+        }
+
+        constant = new double[polyCorners];
+        multiple = new double[polyCorners];
+
+        double[] lats = latitudes;
+        double[] lons = normalizedLongitudes;
+        for (int i = 0, j = polyCorners - 1; i < polyCorners; j = i++) {
+            if (lons[j] == lons[i]) {
+                constant[i] = lats[i];
                 multiple[i] = 0;
             } else {
-                constant[i] = coordinates.get(i).getLat()
-                        - (normalizeLon(coordinates.get(i).getLon()) * coordinates.get(j).getLat())
-                        / (normalizeLon(coordinates.get(j).getLon()) - normalizeLon(coordinates.get(i).getLon()))
-                        + (normalizeLon(coordinates.get(i).getLon()) * coordinates.get(i).getLat())
-                        / (normalizeLon(coordinates.get(j).getLon()) - normalizeLon(coordinates.get(i).getLon()));
-                multiple[i] = (coordinates.get(j).getLat() - coordinates.get(i).getLat())
-                        / (normalizeLon(coordinates.get(j).getLon()) - normalizeLon(coordinates.get(i).getLon()));
+                constant[i] = lats[i]
+                        - (lons[i] * lats[j]) / (lons[j] - lons[i])
+                        + (lons[i] * lats[i]) / (lons[j] - lons[i]);
+                multiple[i] = (lats[j] - lats[i]) / (lons[j] - lons[i]);
+            }
+        }
+
+        minLatitude = Double.POSITIVE_INFINITY;
+        maxLatitude = Double.NEGATIVE_INFINITY;
+        minLongitude = Double.POSITIVE_INFINITY;
+        maxLongitude = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < polyCorners; i++) {
+            minLatitude = Math.min(minLatitude, lats[i]);
+            maxLatitude = Math.max(maxLatitude, lats[i]);
+            minLongitude = Math.min(minLongitude, lons[i]);
+            maxLongitude = Math.max(maxLongitude, lons[i]);
+        }
+
+        bucketOffsets = null;
+        bucketEdges = null;
+        if (polyCorners >= BUCKETS_THRESHOLD && maxLongitude > minLongitude) {
+            createBuckets();
+        }
+    }
+
+    private int getBucket(double longitude) {
+        int bucket = (int) ((longitude - minLongitude) / bucketWidth);
+        return Math.max(0, Math.min(bucket, bucketOffsets.length - 2));
+    }
+
+    /**
+     * Group edges into longitude stripes, so only edges crossing the stripe of a point have to be checked.
+     */
+    private void createBuckets() {
+        int polyCorners = latitudes.length;
+        int bucketCount = polyCorners / BUCKET_SIZE;
+        bucketWidth = (maxLongitude - minLongitude) / bucketCount;
+        bucketOffsets = new int[bucketCount + 1];
+
+        double[] lons = normalizedLongitudes;
+        for (int i = 0, j = polyCorners - 1; i < polyCorners; j = i++) {
+            if (lons[i] != lons[j]) {
+                int last = getBucket(Math.max(lons[i], lons[j]));
+                for (int bucket = getBucket(Math.min(lons[i], lons[j])); bucket <= last; bucket++) {
+                    bucketOffsets[bucket + 1] += 1;
+                }
+            }
+        }
+        for (int bucket = 0; bucket < bucketCount; bucket++) {
+            bucketOffsets[bucket + 1] += bucketOffsets[bucket];
+        }
+
+        bucketEdges = new int[bucketOffsets[bucketCount]];
+        int[] positions = new int[bucketCount];
+        for (int i = 0, j = polyCorners - 1; i < polyCorners; j = i++) {
+            if (lons[i] != lons[j]) {
+                int last = getBucket(Math.max(lons[i], lons[j]));
+                for (int bucket = getBucket(Math.min(lons[i], lons[j])); bucket <= last; bucket++) {
+                    bucketEdges[bucketOffsets[bucket] + positions[bucket]++] = i;
+                }
             }
         }
     }
@@ -94,32 +159,52 @@ public class GeofencePolygon extends GeofenceGeometry {
         return lon;
     }
 
+    private boolean crossesEdge(int i, double latitude, double longitude) {
+        double[] lons = normalizedLongitudes;
+        int j = i > 0 ? i - 1 : lons.length - 1;
+        if (lons[i] < longitude && lons[j] >= longitude || lons[j] < longitude && lons[i] >= longitude) {
+            return longitude * multiple[i] + constant[i] < latitude;
+        }
+        return false;
+    }
+
     @Override
     public boolean containsPoint(double latitude, double longitude) {
 
-        int polyCorners = coordinates.size();
-        int i;
-        int j = polyCorners - 1;
         double longitudeNorm = normalizeLon(longitude);
-        boolean oddNodes = false;
+        if (latitude < minLatitude || latitude > maxLatitude
+                || longitudeNorm < minLongitude || longitudeNorm > maxLongitude) {
+            return false;
+        }
 
-        for (i = 0; i < polyCorners; j = i++) {
-            if (normalizeLon(coordinates.get(i).getLon()) < longitudeNorm
-                    && normalizeLon(coordinates.get(j).getLon()) >= longitudeNorm
-                    || normalizeLon(coordinates.get(j).getLon()) < longitudeNorm
-                    && normalizeLon(coordinates.get(i).getLon()) >= longitudeNorm) {
-                oddNodes ^= longitudeNorm * multiple[i] + constant[i] < latitude;
+        boolean oddNodes = false;
+        if (bucketOffsets != null) {
+            int bucket = getBucket(longitudeNorm);
+            for (int k = bucketOffsets[bucket]; k < bucketOffsets[bucket + 1]; k++) {
+                oddNodes ^= crossesEdge(bucketEdges[k], latitude, longitudeNorm);
+            }
+        } else {
+            for (int i = 0; i < latitudes.length; i++) {
+                oddNodes ^= crossesEdge(i, latitude, longitudeNorm);
             }
         }
         return oddNodes;
     }
 
+    @Override
+    public Envelope getEnvelope() {
+        if (needNormalize) {
+            return new Envelope(-180, 180, minLatitude, maxLatitude);
+        }
+        return new Envelope(minLongitude, maxLongitude, minLatitude, maxLatitude);
+    }
+
     @Override
     public double calculateArea() {
         JtsShapeFactory jtsShapeFactory = new JtsSpatialContextFactory().newSpatialContext().getShapeFactory();
         ShapeFactory.PolygonBuilder polygonBuilder = jtsShapeFactory.polygon();
-        for (Coordinate coordinate : coordinates) {
-            polygonBuilder.pointXY(coordinate.getLon(), coordinate.getLat());
+        for (int i = 0; i < latitudes.length; i++) {
+            polygonBuilder.pointXY(longitudes[i], latitudes[i]);
         }
         return polygonBuilder.build().getArea(SpatialContext.GEO) * DEG_TO_KM * DEG_TO_KM;
     }
@@ -128,10 +213,10 @@ public class GeofencePolygon extends GeofenceGeometry {
     public String toWkt() {
         StringBuilder buf = new StringBuilder();
         buf.append("POLYGON ((");
-        for (Coordinate coordinate : coordinates) {
-            buf.append(coordinate.getLat());
+        for (int i = 0; i < latitudes.length; i++) {
+            buf.append(latitudes[i]);
             buf.append(" ");
-            buf.append(coordinate.getLon());
+            buf.append(longitudes[i]);
             buf.append(", ");
         }
         return buf.substring(0, buf.length() - 2) + "))";
@@ -139,12 +224,6 @@ public class GeofencePolygon extends GeofenceGeometry {
 
     @Override
     public void fromWkt(String wkt) throws ParseException {
-        if (coordinates == null) {
-            coordinates = new ArrayList<>();
-        } else {
-            coordinates.clear();
-        }
-
         if (!wkt.startsWith("POLYGON")) {
             throw new ParseException("Mismatch geometry type", 0);
         }
@@ -157,25 +236,28 @@ public class GeofencePolygon extends GeofenceGeometry {
             throw new ParseException("Not valid content", 0);
         }
 
-        for (String commaToken : commaTokens) {
+        double[] lats = new double[commaTokens.length];
+        double[] lons = new double[commaTokens.length];
+        for (int i = 0; i < commaTokens.length; i++) {
+            String commaToken = commaTokens[i];
             String[] tokens = commaToken.trim().split("\\s");
             if (tokens.length != 2) {
                 throw new ParseException("Here must be two coordinates: " + commaToken, 0);
             }
-            Coordinate coordinate = new Coordinate();
             try {
-                coordinate.setLat(Double.parseDouble(tokens[0]));
+                lats[i] = Double.parseDouble(tokens[0]);
             } catch (NumberFormatException e) {
                 throw new ParseException(tokens[0] + " is not a double", 0);
             }
             try {
-                coordinate.setLon(Double.parseDouble(tokens[1]));
+                lons[i] = Double.parseDouble(tokens[1]);
             } catch (NumberFormatException e) {
                 throw new ParseException(tokens[1] + " is not a double", 0);
             }
-            coordinates.add(coordinate);
         }
 
+        latitudes = lats;
+        longitudes = lons;
         preCalculate();
     }
 
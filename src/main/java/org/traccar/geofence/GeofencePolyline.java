@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 - 2020 Anton Tananaev (anton@traccar.org)
+ * Copyright 2016 - 2021 Anton Tananaev (anton@traccar.org)
  * Copyright 2016 Andrey Kunitsyn (andrey@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -19,6 +19,7 @@ package org.traccar.geofence;
 import java.text.ParseException;
 import java.util.ArrayList;
 
+import org.locationtech.jts.geom.Envelope;
 import org.traccar.helper.DistanceCalculator;
 
 public class GeofencePolyline extends GeofenceGeometry {
@@ -46,6 +47,60 @@ public class GeofencePolyline extends GeofenceGeometry {
         return false;
     }
 
+    private static double[] toVector(Coordinate coordinate) {
+        double lat = Math.toRadians(coordinate.getLat());
+        double lon = Math.toRadians(coordinate.getLon());
+        return new double[] {Math.cos(lat) * Math.cos(lon), Math.cos(lat) * Math.sin(lon), Math.sin(lat)};
+    }
+
+    private static double[] cross(double[] a, double[] b) {
+        return new double[] {a[1] * b[2] - a[2] * b[1], a[2] * b[0] - a[0] * b[2], a[0] * b[1] - a[1] * b[0]};
+    }
+
+    private static double dot(double[] a, double[] b) {
+        return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+    }
+
+    /**
+     * Great circle segment can go beyond latitude range of its ends, so include its highest and lowest points.
+     */
+    private static void expandToSegment(Envelope envelope, Coordinate start, Coordinate end) {
+        double[] p1 = toVector(start);
+        double[] p2 = toVector(end);
+        double[] normal = cross(p1, p2);
+        double horizontal = normal[0] * normal[0] + normal[1] * normal[1];
+        if (horizontal == 0) {
+            return;
+        }
+        double[] top = {-normal[0] * normal[2], -normal[1] * normal[2], horizontal};
+        double lat = Math.toDegrees(Math.asin(top[2] / Math.sqrt(dot(top, top))));
+        for (int sign = -1; sign <= 1; sign += 2) {
+            double[] extreme = {sign * top[0], sign * top[1], sign * top[2]};
+            if (dot(cross(p1, extreme), normal) >= 0 && dot(cross(extreme, p2), normal) >= 0) {
+                envelope.expandToInclude(envelope.getMinX(), sign * lat);
+            }
+        }
+    }
+
+    @Override
+    public Envelope getEnvelope() {
+        Envelope envelope = new Envelope();
+        boolean antimeridian = false;
+        for (int i = 0; i < coordinates.size(); i++) {
+            Coordinate coordinate = coordinates.get(i);
+            envelope.expandToInclude(coordinate.getLon(), coordinate.getLat());
+            if (i > 0) {
+                Coordinate previous = coordinates.get(i - 1);
+                antimeridian |= Math.abs(coordinate.getLon() - previous.getLon()) > 180;
+                expandToSegment(envelope, previous, coordinate);
+            }
+        }
+        if (antimeridian) {
+            envelope.init(-180, 180, envelope.getMinY(), envelope.getMaxY());
+        }
+        return expandEnvelope(envelope, distance);
+    }
+
     @Override
     public double calculateArea() {
         return 0;
@@ -1,5 +1,5 @@
 /*
- * Copyright 2017 - 2019 Anton Tananaev (anton@traccar.org)
+ * Copyright 2017 - 2021 Anton Tananaev (anton@traccar.org)
  * Copyright 2017 Andrey Kunitsyn (andrey@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -16,19 +16,26 @@
  */
 package org.traccar.handler;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 import io.netty.channel.ChannelHandler;
+import org.apache.commons.jexl2.Expression;
+import org.apache.commons.jexl2.JexlContext;
 import org.apache.commons.jexl2.JexlEngine;
 import org.apache.commons.jexl2.JexlException;
-import org.apache.commons.jexl2.MapContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.traccar.BaseDataHandler;
@@ -45,6 +52,20 @@ public class ComputedAttributesHandler extends BaseDataHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ComputedAttributesHandler.class);
 
+    private static final Map<String, Function<Position, Object>> PROPERTIES = createProperties();
+
+    private static final class CompiledExpression {
+
+        private final String source;
+        private final Expression expression;
+
+        private CompiledExpression(String source, Expression expression) {
+            this.source = source;
+            this.expression = expression;
+        }
+
+    }
+
     private final IdentityManager identityManager;
     private final AttributesManager attributesManager;
 
@@ -52,6 +73,8 @@ public class ComputedAttributesHandler extends BaseDataHandler {
 
     private final boolean includeDeviceAttributes;
 
+    private final Map<Long, CompiledExpression> expressions = new ConcurrentHashMap<>();
+
     public ComputedAttributesHandler(
             Config config, IdentityManager identityManager, AttributesManager attributesManager) {
         this.identityManager = identityManager;
@@ -62,36 +85,101 @@ public class ComputedAttributesHandler extends BaseDataHandler {
         includeDeviceAttributes = config.getBoolean(Keys.PROCESSING_COMPUTED_ATTRIBUTES_DEVICE_ATTRIBUTES);
     }
 
-    private MapContext prepareContext(Position position) {
-        MapContext result = new MapContext();
-        if (includeDeviceAttributes) {
-            Device device = identityManager.getById(position.getDeviceId());
-            if (device != null) {
-                for (Object key : device.getAttributes().keySet()) {
-                    result.set((String) key, device.getAttributes().get(key));
-                }
-            }
-        }
-        Set<Method> methods = new HashSet<>(Arrays.asList(position.getClass().getMethods()));
+    @SuppressWarnings("unchecked")
+    private static Map<String, Function<Position, Object>> createProperties() {
+        Map<String, Function<Position, Object>> properties = new HashMap<>();
+        Set<Method> methods = new HashSet<>(Arrays.asList(Position.class.getMethods()));
         methods.removeAll(Arrays.asList(Object.class.getMethods()));
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
         for (Method method : methods) {
-            if (method.getName().startsWith("get") && method.getParameterTypes().length == 0) {
+            if (method.getName().startsWith("get") && method.getParameterTypes().length == 0
+                    && !method.getReturnType().equals(Map.class)) {
                 String name = Character.toLowerCase(method.getName().charAt(3)) + method.getName().substring(4);
-
                 try {
-                    if (!method.getReturnType().equals(Map.class)) {
-                        result.set(name, method.invoke(position));
-                    } else {
-                        for (Object key : ((Map) method.invoke(position)).keySet()) {
-                            result.set((String) key, ((Map) method.invoke(position)).get(key));
-                        }
-                    }
-                } catch (IllegalAccessException | InvocationTargetException error) {
+                    MethodHandle handle = lookup.unreflect(method);
+                    properties.put(name, (Function<Position, Object>) LambdaMetafactory.metafactory(
+                            lookup, "apply", MethodType.methodType(Function.class),
+                            MethodType.methodType(Object.class, Object.class), handle, handle.type().wrap())
+                            .getTarget().invoke());
+                } catch (Throwable error) {
                     LOGGER.warn("Attribute reflection error", error);
                 }
             }
         }
-        return result;
+        return properties;
+    }
+
+    /**
+     * Read-through view of position properties, position attributes and optionally device attributes. Values set by
+     * expressions are kept in the context and don't modify the position.
+     */
+    private final class PositionContext implements JexlContext {
+
+        private final Position position;
+        private Map<String, Object> deviceAttributes;
+        private Map<String, Object> variables;
+
+        private PositionContext(Position position) {
+            this.position = position;
+        }
+
+        private Map<String, Object> getDeviceAttributes() {
+            if (deviceAttributes == null) {
+                deviceAttributes = Collections.emptyMap();
+                if (includeDeviceAttributes) {
+                    Device device = identityManager.getById(position.getDeviceId());
+                    if (device != null) {
+                        deviceAttributes = device.getAttributes();
+                    }
+                }
+            }
+            return deviceAttributes;
+        }
+
+        @Override
+        public Object get(String name) {
+            if (variables != null && variables.containsKey(name)) {
+                return variables.get(name);
+            }
+            if (position.getAttributes().containsKey(name)) {
+                return position.getAttributes().get(name);
+            }
+            Function<Position, Object> property = PROPERTIES.get(name);
+            if (property != null) {
+                return property.apply(position);
+            }
+            return getDeviceAttributes().get(name);
+        }
+
+        @Override
+        public void set(String name, Object value) {
+            if (variables == null) {
+                variables = new HashMap<>();
+            }
+            variables.put(name, value);
+        }
+
+        @Override
+        public boolean has(String name) {
+            return variables != null && variables.containsKey(name)
+                    || position.getAttributes().containsKey(name)
+                    || PROPERTIES.containsKey(name)
+                    || getDeviceAttributes().containsKey(name);
+        }
+
+    }
+
+    private Expression getExpression(Attribute attribute) {
+        String source = attribute.getExpression();
+        if (attribute.getId() == 0) {
+            return engine.createExpression(source);
+        }
+        CompiledExpression compiled = expressions.get(attribute.getId());
+        if (compiled == null || !compiled.source.equals(source)) {
+            compiled = new CompiledExpression(source, engine.createExpression(source));
+            expressions.put(attribute.getId(), compiled);
+        }
+        return compiled.expression;
     }
 
     /**
@@ -99,7 +187,7 @@ public class ComputedAttributesHandler extends BaseDataHandler {
      */
     @Deprecated
     public Object computeAttribute(Attribute attribute, Position position) throws JexlException {
-        return engine.createExpression(attribute.getExpression()).evaluate(prepareContext(position));
+        return getExpression(attribute).evaluate(new PositionContext(position));
     }
 
     @Override
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 - 2019 Anton Tananaev (anton@traccar.org)
+ * Copyright 2015 - 2021 Anton Tananaev (anton@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,10 +15,14 @@
  */
 package org.traccar.handler;
 
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.AttributeKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.traccar.BaseDataHandler;
+import org.traccar.database.BatchWriter;
 import org.traccar.database.DataManager;
 import org.traccar.model.Position;
 
@@ -27,10 +31,44 @@ public class DefaultDataHandler extends BaseDataHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DefaultDataHandler.class);
 
+    private static final AttributeKey<Boolean> PAUSED = AttributeKey.valueOf("batchWriterPaused");
+
     private final DataManager dataManager;
+    private final BatchWriter batchWriter;
 
     public DefaultDataHandler(DataManager dataManager) {
+        this(dataManager, null);
+    }
+
+    public DefaultDataHandler(DataManager dataManager, BatchWriter batchWriter) {
         this.dataManager = dataManager;
+        this.batchWriter = batchWriter;
+    }
+
+    private void pause(Channel channel) {
+        if (channel.attr(PAUSED).compareAndSet(null, Boolean.TRUE)) {
+            channel.config().setAutoRead(false);
+            batchWriter.addResumeListener(() -> {
+                channel.attr(PAUSED).set(null);
+                channel.config().setAutoRead(true);
+            });
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (batchWriter != null && msg instanceof Position) {
+            Position position = (Position) msg;
+            boolean queued = batchWriter.write(position.getDeviceId(), position,
+                    () -> ctx.executor().execute(() -> ctx.fireChannelRead(position)));
+            if (!queued || batchWriter.isFull(position.getDeviceId())) {
+                pause(ctx.channel());
+            }
+            if (queued) {
+                return;
+            }
+        }
+        super.channelRead(ctx, msg);
     }
 
     @Override
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2021 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.helper;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.LongConsumer;
+
+/**
+ * Immutable set of primitive long values stored as a sorted array. It implements {@link java.util.Set} as a read-only
+ * view, but primitive methods should be preferred to avoid boxing.
+ */
+public final class LongSet extends AbstractSet<Long> {
+
+    public static final LongSet EMPTY = new LongSet(new long[0]);
+
+    private final long[] values;
+
+    private LongSet(long[] values) {
+        this.values = values;
+    }
+
+    public static LongSet of(long... values) {
+        Builder builder = new Builder(values.length);
+        for (long value : values) {
+            builder.add(value);
+        }
+        return builder.build();
+    }
+
+    public boolean contains(long value) {
+        return Arrays.binarySearch(values, value) >= 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Long && contains((long) (Long) o);
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return values.length == 0;
+    }
+
+    public void forEachLong(LongConsumer action) {
+        for (long value : values) {
+            action.accept(value);
+        }
+    }
+
+    /**
+     * Returns a set with the value added. Current set is returned if it already contains the value.
+     */
+    public LongSet with(long value) {
+        int index = Arrays.binarySearch(values, value);
+        if (index >= 0) {
+            return this;
+        }
+        index = -index - 1;
+        long[] result = new long[values.length + 1];
+        System.arraycopy(values, 0, result, 0, index);
+        result[index] = value;
+        System.arraycopy(values, index, result, index + 1, values.length - index);
+        return new LongSet(result);
+    }
+
+    /**
+     * Returns a set with the value removed. Current set is returned if it doesn't contain the value.
+     */
+    public LongSet without(long value) {
+        int index = Arrays.binarySearch(values, value);
+        if (index < 0) {
+            return this;
+        } else if (values.length == 1) {
+            return EMPTY;
+        }
+        long[] result = new long[values.length - 1];
+        System.arraycopy(values, 0, result, 0, index);
+        System.arraycopy(values, index + 1, result, index, values.length - index - 1);
+        return new LongSet(result);
+    }
+
+    /**
+     * Length of the backing array, used to verify that no spare capacity is kept.
+     */
+    int arrayLength() {
+        return values.length;
+    }
+
+    public long[] toLongArray() {
+        return values.clone();
+    }
+
+    @Override
+    public Iterator<Long> iterator() {
+        return new Iterator<Long>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < values.length;
+            }
+
+            @Override
+            public Long next() {
+                if (index >= values.length) {
+                    throw new NoSuchElementException();
+                }
+                return values[index++];
+            }
+        };
+    }
+
+    public static final class Builder {
+
+        private long[] values;
+        private int size;
+
+        public Builder() {
+            this(8);
+        }
+
+        public Builder(int capacity) {
+            values = new long[Math.max(capacity, 1)];
+        }
+
+        public Builder add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+            return this;
+        }
+
+        public Builder addAll(LongSet set) {
+            if (size + set.values.length > values.length) {
+                values = Arrays.copyOf(values, Math.max(size * 2, size + set.values.length));
+            }
+            System.arraycopy(set.values, 0, values, size, set.values.length);
+            size += set.values.length;
+            return this;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public LongSet build() {
+            if (size == 0) {
+                return EMPTY;
+            }
+            long[] result = Arrays.copyOf(values, size);
+            Arrays.sort(result);
+            int count = 1;
+            for (int i = 1; i < result.length; i++) {
+                if (result[i] != result[count - 1]) {
+                    result[count++] = result[i];
+                }
+            }
+            return new LongSet(count < result.length ? Arrays.copyOf(result, count) : result);
+        }
+
+    }
+
+}
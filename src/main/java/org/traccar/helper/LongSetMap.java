@@ -0,0 +1,214 @@
+/*
+ * Copyright 2021 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.helper;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable map from primitive long keys to {@link LongSet} values using open addressing. Missing keys are mapped to
+ * an empty set. Instances are created with {@link Builder}.
+ */
+public final class LongSetMap {
+
+    public static final LongSetMap EMPTY = new Builder().build();
+
+    public interface Visitor {
+        void visit(long key, LongSet values);
+    }
+
+    private final long[] keys;
+    private final LongSet[] values;
+    private final int size;
+    private final int used;
+
+    private LongSetMap(long[] keys, LongSet[] values, int size, int used) {
+        this.keys = keys;
+        this.values = values;
+        this.size = size;
+        this.used = used;
+    }
+
+    private static int hash(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    public LongSet get(long key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key, mask);; i = (i + 1) & mask) {
+            LongSet value = values[i];
+            if (value == null) {
+                return LongSet.EMPTY;
+            } else if (keys[i] == key) {
+                return value;
+            }
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return !get(key).isEmpty();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Number of slots in the hash table, used to verify load factor.
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Number of array slots held by the map, counting key and value slots of the table and backing arrays of all
+     * distinct sets, used to verify memory footprint.
+     */
+    long footprint() {
+        Set<LongSet> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+        long result = keys.length + values.length;
+        for (LongSet value : values) {
+            if (value != null && distinct.add(value)) {
+                result += value.arrayLength();
+            }
+        }
+        return result;
+    }
+
+    public void forEach(Visitor visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != null && !values[i].isEmpty()) {
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+
+    public LongSetMap with(long key, LongSet set) {
+        return withAll(Collections.singletonMap(key, set));
+    }
+
+    /**
+     * Returns a new map with the values of the given keys replaced. Arrays are copied once and all other sets are
+     * shared with the current map, so the cost doesn't depend on the size of the values. Removed keys are kept as
+     * empty sets until the next rebuild.
+     */
+    public LongSetMap withAll(Map<Long, LongSet> changes) {
+        long[] newKeys = keys;
+        LongSet[] newValues = values.clone();
+        int newSize = size;
+        int newUsed = used;
+        int mask = keys.length - 1;
+        for (Map.Entry<Long, LongSet> change : changes.entrySet()) {
+            long key = change.getKey();
+            LongSet set = change.getValue();
+            int i = hash(key, mask);
+            while (newValues[i] != null && newKeys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (newValues[i] != null) {
+                newSize += (set.isEmpty() ? 0 : 1) - (newValues[i].isEmpty() ? 0 : 1);
+                newValues[i] = set;
+            } else if (!set.isEmpty()) {
+                if ((newUsed + 1) * 2 > keys.length) {
+                    Builder builder = new Builder();
+                    forEach(builder::put);
+                    changes.forEach(builder::put);
+                    return builder.build();
+                }
+                if (newKeys == keys) {
+                    newKeys = keys.clone();
+                }
+                newKeys[i] = key;
+                newValues[i] = set;
+                newSize += 1;
+                newUsed += 1;
+            }
+        }
+        return new LongSetMap(newKeys, newValues, newSize, newUsed);
+    }
+
+    public static final class Builder {
+
+        private final Map<Long, Object> items = new HashMap<>();
+
+        public Builder add(long key, long value) {
+            entry(key).add(value);
+            return this;
+        }
+
+        public Builder addAll(long key, LongSet set) {
+            if (!set.isEmpty()) {
+                entry(key).addAll(set);
+            }
+            return this;
+        }
+
+        /**
+         * Set complete value for a key. The set is stored without copying.
+         */
+        public Builder put(long key, LongSet set) {
+            if (set.isEmpty()) {
+                items.remove(key);
+            } else {
+                items.put(key, set);
+            }
+            return this;
+        }
+
+        private LongSet.Builder entry(long key) {
+            Object item = items.get(key);
+            if (item instanceof LongSet.Builder) {
+                return (LongSet.Builder) item;
+            }
+            LongSet.Builder builder = new LongSet.Builder(item != null ? ((LongSet) item).size() + 1 : 2);
+            if (item != null) {
+                builder.addAll((LongSet) item);
+            }
+            items.put(key, builder);
+            return builder;
+        }
+
+        public LongSetMap build() {
+            int capacity = Integer.highestOneBit(Math.max(items.size() * 2, 2) - 1) << 1;
+            long[] keys = new long[capacity];
+            LongSet[] values = new LongSet[capacity];
+            int mask = capacity - 1;
+            int size = 0;
+            for (Map.Entry<Long, Object> entry : items.entrySet()) {
+                Object item = entry.getValue();
+                LongSet set = item instanceof LongSet.Builder ? ((LongSet.Builder) item).build() : (LongSet) item;
+                if (set.isEmpty()) {
+                    continue;
+                }
+                long key = entry.getKey();
+                int i = hash(key, mask);
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+                values[i] = set;
+                size += 1;
+            }
+            return new LongSetMap(keys, values, size, size);
+        }
+
+    }
+
+}
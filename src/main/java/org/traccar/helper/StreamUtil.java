@@ -0,0 +1,89 @@
+/*
+ * Copyright 2021 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.helper;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public final class StreamUtil {
+
+    private StreamUtil() {
+    }
+
+    private static final class ConcatIterator<K, T> implements Iterator<T> {
+
+        private final Iterator<K> keys;
+        private final Function<K, Stream<T>> opener;
+
+        private Stream<T> current;
+        private Iterator<T> items = Collections.emptyIterator();
+
+        private ConcatIterator(Iterator<K> keys, Function<K, Stream<T>> opener) {
+            this.keys = keys;
+            this.opener = opener;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!items.hasNext()) {
+                close();
+                if (!keys.hasNext()) {
+                    return false;
+                }
+                current = opener.apply(keys.next());
+                items = current.iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return items.next();
+        }
+
+        private void close() {
+            items = Collections.emptyIterator();
+            if (current != null) {
+                Stream<T> stream = current;
+                current = null;
+                stream.close();
+            }
+        }
+
+    }
+
+    /**
+     * Concatenate streams opened for each key. Unlike {@link Stream#flatMap}, elements are pulled lazily even through
+     * an iterator, and each stream is opened only after the previous one is exhausted and closed. Closing the result
+     * closes the stream that is currently open.
+     */
+    public static <K, T> Stream<T> concat(Collection<K> keys, Function<K, Stream<T>> opener) {
+        ConcatIterator<K, T> iterator = new ConcatIterator<>(keys.iterator(), opener);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+                .onClose(iterator::close);
+    }
+
+}
@@ -29,8 +29,13 @@ import org.traccar.database.QueryIgnore;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class Calendar extends ExtendedModel {
 
@@ -53,6 +58,7 @@ public class Calendar extends ExtendedModel {
     public void setData(byte[] data) throws IOException, ParserException {
         CalendarBuilder builder = new CalendarBuilder();
         calendar = builder.build(new ByteArrayInputStream(data));
+        schedule = null;
         this.data = data.clone();
     }
 
@@ -64,12 +70,90 @@ public class Calendar extends ExtendedModel {
         return calendar;
     }
 
+    private static final long SCHEDULE_BEFORE = TimeUnit.DAYS.toMillis(1);
+    private static final long SCHEDULE_AFTER = TimeUnit.DAYS.toMillis(30);
+
+    /**
+     * Event occurrences within a time range, merged into sorted non-overlapping intervals. Interval boundaries are
+     * inclusive, same as in ical4j period matching.
+     */
+    private static final class Schedule {
+
+        private final long from;
+        private final long to;
+        private final long[] starts;
+        private final long[] ends;
+
+        private Schedule(long from, long to, long[] starts, long[] ends) {
+            this.from = from;
+            this.to = to;
+            this.starts = starts;
+            this.ends = ends;
+        }
+
+        private boolean covers(long time) {
+            return time >= from && time < to;
+        }
+
+        private boolean contains(long time) {
+            int index = Arrays.binarySearch(starts, time);
+            if (index < 0) {
+                index = -index - 2;
+            }
+            return index >= 0 && time <= ends[index];
+        }
+
+    }
+
+    private volatile Schedule schedule;
+
+    private Schedule compileSchedule(long from, long to) {
+        List<long[]> intervals = new ArrayList<>();
+        Period range = new Period(new DateTime(from), new DateTime(to));
+        for (CalendarComponent component : calendar.getComponents(CalendarComponent.VEVENT)) {
+            for (Period period : component.calculateRecurrenceSet(range)) {
+                intervals.add(new long[] {period.getStart().getTime(), period.getEnd().getTime()});
+            }
+        }
+        intervals.sort(Comparator.comparingLong(interval -> interval[0]));
+
+        long[] starts = new long[intervals.size()];
+        long[] ends = new long[intervals.size()];
+        int count = 0;
+        for (long[] interval : intervals) {
+            if (count > 0 && interval[0] <= ends[count - 1]) {
+                ends[count - 1] = Math.max(ends[count - 1], interval[1]);
+            } else {
+                starts[count] = interval[0];
+                ends[count] = interval[1];
+                count += 1;
+            }
+        }
+        return new Schedule(from, to, Arrays.copyOf(starts, count), Arrays.copyOf(ends, count));
+    }
+
+    /**
+     * Occurrences around the current time are expanded into a schedule, which is rebuilt once the time passes its
+     * range. Moments outside of the range, for example from old positions, are checked directly.
+     */
     public boolean checkMoment(Date date) {
         if (calendar != null) {
-            Period period = new Period(new DateTime(date), Duration.ZERO);
-            Filter<CalendarComponent> filter = new Filter<>(new PeriodRule<>(period));
-            Collection<CalendarComponent> events = filter.filter(calendar.getComponents(CalendarComponent.VEVENT));
-            return events != null && !events.isEmpty();
+            long time = date.getTime();
+            Schedule current = schedule;
+            if (current == null || !current.covers(time)) {
+                long now = System.currentTimeMillis();
+                if (time >= now - SCHEDULE_BEFORE && time < now + SCHEDULE_AFTER) {
+                    current = compileSchedule(now - SCHEDULE_BEFORE, now + SCHEDULE_AFTER);
+                    schedule = current;
+                } else {
+                    Period period = new Period(new DateTime(date), Duration.ZERO);
+                    Filter<CalendarComponent> filter = new Filter<>(new PeriodRule<>(period));
+                    Collection<CalendarComponent> events = filter.filter(
+                            calendar.getComponents(CalendarComponent.VEVENT));
+                    return events != null && !events.isEmpty();
+                }
+            }
+            return current.contains(time);
         }
         return false;
     }
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2021 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.notification;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.traccar.model.Event;
+import org.traccar.model.Position;
+import org.traccar.notificators.Notificator;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Sends notifications of a single notificator type using a fixed number of threads and a bounded queue, so a burst
+ * of events can't create unlimited threads or connections. Counters are exposed for monitoring.
+ */
+public class NotificationDispatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NotificationDispatcher.class);
+
+    public static final String OVERFLOW_DROP = "drop";
+    public static final String OVERFLOW_CALLER = "caller";
+
+    private final String type;
+    private final Notificator notificator;
+    private final boolean callerRuns;
+
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final LongAccumulator maxLatency = new LongAccumulator(Math::max, 0);
+
+    public NotificationDispatcher(String type, Notificator notificator, int threads, int queueSize, String overflow) {
+        this.type = type;
+        this.notificator = notificator;
+        this.callerRuns = OVERFLOW_CALLER.equals(overflow);
+        AtomicInteger index = new AtomicInteger();
+        threads = Math.max(threads, 1);
+        executor = new ThreadPoolExecutor(
+                threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Math.max(queueSize, 1)), runnable -> {
+                    Thread thread = new Thread(runnable, "notificator-" + type + "-" + index.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Average time in milliseconds from queuing a notification until it is sent or fails.
+     */
+    public long getAverageLatency() {
+        long count = sent.get() + failed.get();
+        return count > 0 ? totalLatency.get() / count : 0;
+    }
+
+    public long getMaxLatency() {
+        return maxLatency.get();
+    }
+
+    private void send(long userId, Event event, Position position, long queueTime) {
+        try {
+            notificator.sendSync(userId, event, position);
+            sent.incrementAndGet();
+        } catch (MessageException | RuntimeException error) {
+            failed.incrementAndGet();
+            LOGGER.warn("Event send error", error);
+        } catch (InterruptedException error) {
+            failed.incrementAndGet();
+            Thread.currentThread().interrupt();
+        } finally {
+            long latency = System.currentTimeMillis() - queueTime;
+            totalLatency.addAndGet(latency);
+            maxLatency.accumulate(latency);
+        }
+    }
+
+    public void sendAsync(long userId, Event event, Position position) {
+        long queueTime = System.currentTimeMillis();
+        try {
+            executor.execute(() -> send(userId, event, position, queueTime));
+        } catch (RejectedExecutionException e) {
+            long count = rejected.incrementAndGet();
+            if (callerRuns) {
+                send(userId, event, position, queueTime);
+            } else if (count % 1000 == 1) {
+                LOGGER.warn("Notification queue for {} is full, {} notifications dropped", type, count);
+            }
+        }
+    }
+
+}
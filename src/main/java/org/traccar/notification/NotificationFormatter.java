@@ -21,28 +21,96 @@ import org.traccar.Context;
 import org.traccar.model.Device;
 import org.traccar.model.Event;
 import org.traccar.model.Position;
+import org.traccar.model.Server;
 import org.traccar.model.User;
 import org.traccar.reports.ReportUtils;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
 public final class NotificationFormatter {
 
-    private NotificationFormatter() {
+    /**
+     * Formatting settings of a user. Valid until the user or the server object is replaced in the cache.
+     */
+    private static final class UserFormat {
+
+        private final User user;
+        private final Server server;
+        private final VelocityContext context;
+        private final String speedUnit;
+        private final String distanceUnit;
+        private final String volumeUnit;
+        private final String key;
+
+        private UserFormat(long userId, User user, Server server) {
+            this.user = user;
+            this.server = server;
+            context = TextTemplateFormatter.prepareContext(user);
+            speedUnit = ReportUtils.getSpeedUnit(userId);
+            distanceUnit = ReportUtils.getDistanceUnit(userId);
+            volumeUnit = ReportUtils.getVolumeUnit(userId);
+            String timezone = ((TimeZone) context.get("timezone")).getID();
+            key = timezone + ":" + speedUnit + ":" + distanceUnit + ":" + volumeUnit;
+        }
+
     }
 
-    public static VelocityContext prepareContext(long userId, Event event, Position position) {
+    private static final Map<Long, UserFormat> FORMATS = new ConcurrentHashMap<>();
 
+    /**
+     * Messages already rendered for an event. Recipients with the same formatting settings share a message unless the
+     * template references the user. Entries are dropped together with the event.
+     */
+    private static final Map<Event, Map<String, Object>> MESSAGES =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private NotificationFormatter() {
+    }
+
+    private static UserFormat getFormat(long userId) {
         User user = Context.getPermissionsManager().getUser(userId);
+        Server server = Context.getPermissionsManager().getServer();
+        if (user == null) {
+            FORMATS.remove(userId);
+            return null;
+        }
+        UserFormat format = FORMATS.get(userId);
+        if (format == null || format.user != user || format.server != server) {
+            format = new UserFormat(userId, user, server);
+            FORMATS.put(userId, format);
+        }
+        return format;
+    }
+
+    private static VelocityContext prepareContext(UserFormat format, long userId, Event event, Position position) {
+
         Device device = Context.getIdentityManager().getById(event.getDeviceId());
 
-        VelocityContext velocityContext = TextTemplateFormatter.prepareContext(user);
+        VelocityContext velocityContext;
+        if (format != null) {
+            velocityContext = new VelocityContext(format.context);
+        } else {
+            velocityContext = TextTemplateFormatter.prepareContext(null);
+        }
 
         velocityContext.put("device", device);
         velocityContext.put("event", event);
         if (position != null) {
             velocityContext.put("position", position);
-            velocityContext.put("speedUnit", ReportUtils.getSpeedUnit(userId));
-            velocityContext.put("distanceUnit", ReportUtils.getDistanceUnit(userId));
-            velocityContext.put("volumeUnit", ReportUtils.getVolumeUnit(userId));
+            if (format != null) {
+                velocityContext.put("speedUnit", format.speedUnit);
+                velocityContext.put("distanceUnit", format.distanceUnit);
+                velocityContext.put("volumeUnit", format.volumeUnit);
+            } else {
+                velocityContext.put("speedUnit", ReportUtils.getSpeedUnit(userId));
+                velocityContext.put("distanceUnit", ReportUtils.getDistanceUnit(userId));
+                velocityContext.put("volumeUnit", ReportUtils.getVolumeUnit(userId));
+            }
         }
         if (event.getGeofenceId() != 0) {
             velocityContext.put("geofence", Context.getGeofenceManager().getById(event.getGeofenceId()));
@@ -58,14 +126,40 @@ public final class NotificationFormatter {
         return velocityContext;
     }
 
+    public static VelocityContext prepareContext(long userId, Event event, Position position) {
+        return prepareContext(getFormat(userId), userId, event, position);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T formatMessage(
+            long userId, Event event, Position position, String kind, Function<VelocityContext, T> formatter) {
+
+        UserFormat format = getFormat(userId);
+        if (format == null) {
+            return formatter.apply(prepareContext(null, userId, event, position));
+        }
+
+        String key = kind + ":" + format.key;
+        if (Context.getTemplateRegistry().isUserDependent(event.getType(), kind)) {
+            key += ":" + userId;
+        }
+
+        Map<String, Object> messages;
+        synchronized (MESSAGES) {
+            messages = MESSAGES.computeIfAbsent(event, e -> new ConcurrentHashMap<>());
+        }
+        return (T) messages.computeIfAbsent(
+                key, k -> formatter.apply(prepareContext(format, userId, event, position)));
+    }
+
     public static FullMessage formatFullMessage(long userId, Event event, Position position) {
-        VelocityContext velocityContext = prepareContext(userId, event, position);
-        return TextTemplateFormatter.formatFullMessage(velocityContext, event.getType());
+        return formatMessage(userId, event, position, "full",
+                velocityContext -> TextTemplateFormatter.formatFullMessage(velocityContext, event.getType()));
     }
 
     public static String formatShortMessage(long userId, Event event, Position position) {
-        VelocityContext velocityContext = prepareContext(userId, event, position);
-        return TextTemplateFormatter.formatShortMessage(velocityContext, event.getType());
+        return formatMessage(userId, event, position, "short",
+                velocityContext -> TextTemplateFormatter.formatShortMessage(velocityContext, event.getType()));
     }
 
 }
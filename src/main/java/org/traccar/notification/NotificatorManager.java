@@ -1,5 +1,5 @@
 /*
- * Copyright 2018 - 2020 Anton Tananaev (anton@traccar.org)
+ * Copyright 2018 - 2021 Anton Tananaev (anton@traccar.org)
  * Copyright 2018 Andrey Kunitsyn (andrey@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -16,6 +16,7 @@
  */
 package org.traccar.notification;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -24,6 +25,10 @@ import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.traccar.Context;
+import org.traccar.config.Config;
+import org.traccar.config.Keys;
+import org.traccar.model.Event;
+import org.traccar.model.Position;
 import org.traccar.model.Typed;
 import org.traccar.notificators.NotificatorFirebase;
 import org.traccar.notificators.NotificatorMail;
@@ -42,6 +47,7 @@ public final class NotificatorManager {
     private static final Notificator NULL_NOTIFICATOR = new NotificatorNull();
 
     private final Map<String, Notificator> notificators = new HashMap<>();
+    private final Map<String, NotificationDispatcher> dispatchers = new HashMap<>();
 
     public NotificatorManager() {
         final String[] types = Context.getConfig().getString("notificator.types", "").split(",");
@@ -75,13 +81,50 @@ public final class NotificatorManager {
             final String className = Context.getConfig()
                     .getString("notificator." + type + ".class", defaultNotificator);
             try {
-                notificators.put(type, (Notificator) Class.forName(className).newInstance());
+                Notificator notificator = (Notificator) Class.forName(className).newInstance();
+                notificators.put(type, notificator);
+                dispatchers.put(type, createDispatcher(type, notificator));
             } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
                 LOGGER.warn("Unable to load notificator class for " + type + " " + className + " " + e.getMessage());
             }
         }
     }
 
+    private static NotificationDispatcher createDispatcher(String type, Notificator notificator) {
+        Config config = Context.getConfig();
+        String prefix = "notificator." + type;
+        String overflow = config.getString(
+                Keys.NOTIFICATOR_TYPE_QUEUE_OVERFLOW.withPrefix(prefix),
+                config.getString(Keys.NOTIFICATOR_QUEUE_OVERFLOW));
+        if (!NotificationDispatcher.OVERFLOW_DROP.equals(overflow)
+                && !NotificationDispatcher.OVERFLOW_CALLER.equals(overflow)) {
+            LOGGER.warn("Unknown queue overflow mode {} for {} notificator, using {}",
+                    overflow, type, NotificationDispatcher.OVERFLOW_DROP);
+            overflow = NotificationDispatcher.OVERFLOW_DROP;
+        }
+        return new NotificationDispatcher(type, notificator,
+                config.getInteger(
+                        Keys.NOTIFICATOR_TYPE_THREADS.withPrefix(prefix),
+                        config.getInteger(Keys.NOTIFICATOR_THREADS)),
+                config.getInteger(
+                        Keys.NOTIFICATOR_TYPE_QUEUE_SIZE.withPrefix(prefix),
+                        config.getInteger(Keys.NOTIFICATOR_QUEUE_SIZE)),
+                overflow);
+    }
+
+    public void sendAsync(String type, long userId, Event event, Position position) {
+        NotificationDispatcher dispatcher = dispatchers.get(type);
+        if (dispatcher != null) {
+            dispatcher.sendAsync(userId, event, position);
+        } else {
+            LOGGER.warn("No notificator configured for type : " + type);
+        }
+    }
+
+    public Collection<NotificationDispatcher> getDispatchers() {
+        return dispatchers.values();
+    }
+
     public Notificator getNotificator(String type) {
         final Notificator notificator = notificators.get(type);
         if (notificator == null) {
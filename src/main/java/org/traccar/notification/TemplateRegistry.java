@@ -0,0 +1,129 @@
+/*
+ * Copyright 2021 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.notification;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.exception.ResourceNotFoundException;
+import org.apache.velocity.runtime.parser.node.ASTDirective;
+import org.apache.velocity.runtime.parser.node.ASTReference;
+import org.apache.velocity.runtime.parser.node.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps parsed templates by name and kind. Template files are checked for modification using the Velocity resource
+ * loader interval and reloaded when they change. Missing templates are replaced with the unknown template until the
+ * file appears.
+ */
+public class TemplateRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TemplateRegistry.class);
+
+    private static final String FALLBACK_NAME = "unknown";
+
+    private final VelocityEngine velocityEngine;
+
+    private final Map<String, Entry> templates = new ConcurrentHashMap<>();
+
+    private static final class Entry {
+
+        private final String path;
+        private final Template template;
+        private final boolean fallback;
+        private final boolean userDependent;
+
+        private Entry(String path, Template template, boolean fallback) {
+            this.path = path;
+            this.template = template;
+            this.fallback = fallback;
+            this.userDependent = isUserDependent((Node) template.getData());
+        }
+
+    }
+
+    public TemplateRegistry(VelocityEngine velocityEngine) {
+        this.velocityEngine = velocityEngine;
+    }
+
+    /**
+     * Check if the template output can differ between users with the same formatting settings. Templates including
+     * other templates are always treated as user dependent.
+     */
+    private static boolean isUserDependent(Node node) {
+        if (node instanceof ASTReference && "user".equals(((ASTReference) node).getRootString())) {
+            return true;
+        }
+        if (node instanceof ASTDirective) {
+            String directive = ((ASTDirective) node).getDirectiveName();
+            if ("parse".equals(directive) || "include".equals(directive) || "evaluate".equals(directive)) {
+                return true;
+            }
+        }
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            if (isUserDependent(node.jjtGetChild(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Entry load(String path, String kind) {
+        try {
+            return new Entry(path, velocityEngine.getTemplate(path, StandardCharsets.UTF_8.name()), false);
+        } catch (ResourceNotFoundException error) {
+            LOGGER.warn("Notification template error", error);
+            String fallbackPath = Paths.get(kind, FALLBACK_NAME + ".vm").toString();
+            return new Entry(path, velocityEngine.getTemplate(fallbackPath, StandardCharsets.UTF_8.name()), true);
+        }
+    }
+
+    private boolean isModified(Entry entry) {
+        Template template = entry.template;
+        if (!template.requiresChecking()) {
+            return false;
+        }
+        template.touch();
+        return template.isSourceModified() || entry.fallback && velocityEngine.resourceExists(entry.path);
+    }
+
+    private Entry getEntry(String name, String kind) {
+        String path = Paths.get(kind, name + ".vm").toString();
+        Entry entry = templates.get(path);
+        if (entry == null || isModified(entry)) {
+            entry = load(path, kind);
+            templates.put(path, entry);
+        }
+        return entry;
+    }
+
+    public Template getTemplate(String name, String kind) {
+        return getEntry(name, kind).template;
+    }
+
+    /**
+     * Check if the template references the user, so the same message can't be shared between recipients.
+     */
+    public boolean isUserDependent(String name, String kind) {
+        return getEntry(name, kind).userDependent;
+    }
+
+}
@@ -17,23 +17,19 @@ package org.traccar.notification;
 
 import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.exception.ResourceNotFoundException;
 import org.apache.velocity.tools.generic.DateTool;
 import org.apache.velocity.tools.generic.NumberTool;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.traccar.Context;
 import org.traccar.model.User;
 import org.traccar.reports.ReportUtils;
 
 import java.io.StringWriter;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Paths;
 import java.util.Locale;
 
 public final class TextTemplateFormatter {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(TextTemplateFormatter.class);
+    private static final DateTool DATE_TOOL = new DateTool();
+    private static final NumberTool NUMBER_TOOL = new NumberTool();
 
     private TextTemplateFormatter() {
     }
@@ -48,27 +44,15 @@ public final class TextTemplateFormatter {
         }
 
         velocityContext.put("webUrl", Context.getVelocityEngine().getProperty("web.url"));
-        velocityContext.put("dateTool", new DateTool());
-        velocityContext.put("numberTool", new NumberTool());
+        velocityContext.put("dateTool", DATE_TOOL);
+        velocityContext.put("numberTool", NUMBER_TOOL);
         velocityContext.put("locale", Locale.getDefault());
 
         return velocityContext;
     }
 
     public static Template getTemplate(String name, String path) {
-
-        String templateFilePath;
-        Template template;
-
-        try {
-            templateFilePath = Paths.get(path, name + ".vm").toString();
-            template = Context.getVelocityEngine().getTemplate(templateFilePath, StandardCharsets.UTF_8.name());
-        } catch (ResourceNotFoundException error) {
-            LOGGER.warn("Notification template error", error);
-            templateFilePath = Paths.get(path, "unknown.vm").toString();
-            template = Context.getVelocityEngine().getTemplate(templateFilePath, StandardCharsets.UTF_8.name());
-        }
-        return template;
+        return Context.getTemplateRegistry().getTemplate(name, path);
     }
 
     public static FullMessage formatFullMessage(VelocityContext velocityContext, String name) {
@@ -1,5 +1,5 @@
 /*
- * Copyright 2018 Anton Tananaev (anton@traccar.org)
+ * Copyright 2018 - 2021 Anton Tananaev (anton@traccar.org)
  * Copyright 2018 Andrey Kunitsyn (andrey@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -16,24 +16,32 @@
  */
 package org.traccar.notificators;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.traccar.model.Event;
 import org.traccar.model.Position;
 import org.traccar.notification.MessageException;
 
-public abstract class Notificator {
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.core.Response;
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(Notificator.class);
+/**
+ * Notifications are sent synchronously on the threads of the notification dispatcher of the given type, so the
+ * number of concurrent connections is limited by the dispatcher configuration.
+ */
+public abstract class Notificator {
 
-    public void sendAsync(final long userId, final Event event, final Position position) {
-        new Thread(() -> {
-            try {
-                sendSync(userId, event, position);
-            } catch (MessageException | InterruptedException error) {
-                LOGGER.warn("Event send error", error);
+    /**
+     * Post JSON message and wait for the response. Unsuccessful response status is reported as an error.
+     */
+    protected static void postJson(Invocation.Builder request, Object message) throws MessageException {
+        try (Response response = request.post(Entity.json(message))) {
+            if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+                throw new MessageException("HTTP error " + response.getStatus());
             }
-        }).start();
+        } catch (ProcessingException e) {
+            throw new MessageException(e);
+        }
     }
 
     public abstract void sendSync(long userId, Event event, Position position)
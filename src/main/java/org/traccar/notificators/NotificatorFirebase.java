@@ -1,5 +1,5 @@
 /*
- * Copyright 2018 - 2020 Anton Tananaev (anton@traccar.org)
+ * Copyright 2018 - 2021 Anton Tananaev (anton@traccar.org)
  * Copyright 2018 Andrey Kunitsyn (andrey@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -17,22 +17,16 @@
 package org.traccar.notificators;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.traccar.Context;
 import org.traccar.config.Keys;
 import org.traccar.model.Event;
 import org.traccar.model.Position;
 import org.traccar.model.User;
+import org.traccar.notification.MessageException;
 import org.traccar.notification.NotificationFormatter;
 
-import javax.ws.rs.client.Entity;
-import javax.ws.rs.client.InvocationCallback;
-
 public class NotificatorFirebase extends Notificator {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(NotificatorFirebase.class);
-
     private final String url;
     private final String key;
 
@@ -62,7 +56,7 @@ public class NotificatorFirebase extends Notificator {
     }
 
     @Override
-    public void sendSync(long userId, Event event, Position position) {
+    public void sendSync(long userId, Event event, Position position) throws MessageException {
         final User user = Context.getPermissionsManager().getUser(userId);
         if (user.getAttributes().containsKey("notificationTokens")) {
 
@@ -74,24 +68,9 @@ public class NotificatorFirebase extends Notificator {
             message.tokens = user.getString("notificationTokens").split("[, ]");
             message.notification = notification;
 
-            Context.getClient().target(url).request()
-                    .header("Authorization", "key=" + key)
-                    .async().post(Entity.json(message), new InvocationCallback<Object>() {
-                @Override
-                public void completed(Object o) {
-                }
-
-                @Override
-                public void failed(Throwable throwable) {
-                    LOGGER.warn("Firebase notification error", throwable);
-                }
-            });
+            postJson(Context.getClient().target(url).request()
+                    .header("Authorization", "key=" + key), message);
         }
     }
 
-    @Override
-    public void sendAsync(long userId, Event event, Position position) {
-        sendSync(userId, event, position);
-    }
-
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2018 Anton Tananaev (anton@traccar.org)
+ * Copyright 2018 - 2021 Anton Tananaev (anton@traccar.org)
  * Copyright 2018 Andrey Kunitsyn (andrey@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -25,11 +25,6 @@ public final class NotificatorNull extends Notificator {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(NotificatorNull.class);
 
-    @Override
-    public void sendAsync(long userId, Event event, Position position) {
-        LOGGER.warn("You are using null notificatior, please check your configuration, notification not sent");
-    }
-
     @Override
     public void sendSync(long userId, Event event, Position position) {
         LOGGER.warn("You are using null notificatior, please check your configuration, notification not sent");
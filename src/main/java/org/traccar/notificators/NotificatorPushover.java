@@ -1,5 +1,5 @@
 /*
- * Copyright 2020 Anton Tananaev (anton@traccar.org)
+ * Copyright 2020 - 2021 Anton Tananaev (anton@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -23,11 +23,9 @@ import org.traccar.config.Keys;
 import org.traccar.model.Event;
 import org.traccar.model.Position;
 import org.traccar.model.User;
+import org.traccar.notification.MessageException;
 import org.traccar.notification.NotificationFormatter;
 
-import javax.ws.rs.client.Entity;
-import javax.ws.rs.client.InvocationCallback;
-
 public class NotificatorPushover extends Notificator {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(NotificatorPushover.class);
@@ -54,7 +52,7 @@ public class NotificatorPushover extends Notificator {
     }
 
     @Override
-    public void sendSync(long userId, Event event, Position position) {
+    public void sendSync(long userId, Event event, Position position) throws MessageException {
 
         final User user = Context.getPermissionsManager().getUser(userId);
 
@@ -80,22 +78,7 @@ public class NotificatorPushover extends Notificator {
         message.device = device;
         message.message = NotificationFormatter.formatShortMessage(userId, event, position);
 
-        Context.getClient().target(url).request()
-                .async().post(Entity.json(message), new InvocationCallback<Object>() {
-            @Override
-            public void completed(Object o) {
-            }
-
-            @Override
-            public void failed(Throwable throwable) {
-                LOGGER.warn("Pushover API error", throwable);
-            }
-        });
-    }
-
-    @Override
-    public void sendAsync(long userId, Event event, Position position) {
-        sendSync(userId, event, position);
+        postJson(Context.getClient().target(url).request(), message);
     }
 
 }
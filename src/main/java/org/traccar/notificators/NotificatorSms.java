@@ -1,5 +1,5 @@
 /*
- * Copyright 2017 - 2020 Anton Tananaev (anton@traccar.org)
+ * Copyright 2017 - 2021 Anton Tananaev (anton@traccar.org)
  * Copyright 2017 - 2018 Andrey Kunitsyn (andrey@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -27,16 +27,6 @@ import org.traccar.notification.NotificationFormatter;
 
 public final class NotificatorSms extends Notificator {
 
-    @Override
-    public void sendAsync(long userId, Event event, Position position) {
-        final User user = Context.getPermissionsManager().getUser(userId);
-        if (user.getPhone() != null) {
-            Main.getInjector().getInstance(StatisticsManager.class).registerSms();
-            Context.getSmsManager().sendMessageAsync(user.getPhone(),
-                    NotificationFormatter.formatShortMessage(userId, event, position), false);
-        }
-    }
-
     @Override
     public void sendSync(long userId, Event event, Position position) throws MessageException, InterruptedException {
         final User user = Context.getPermissionsManager().getUser(userId);
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2021 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.reports;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes per device report data in parallel on a dedicated thread pool. Number of concurrent tasks of a single
+ * user is limited, so one large report can't take all threads and database connections. Results are always returned
+ * in the device order.
+ */
+public class ReportExecutor {
+
+    public interface DeviceTask<T> {
+        T compute(long deviceId) throws SQLException;
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final int userThreads;
+
+    private final Map<Long, Semaphore> userPermits = new ConcurrentHashMap<>();
+
+    public ReportExecutor(int threads, int userThreads) {
+        AtomicInteger index = new AtomicInteger();
+        executor = new ThreadPoolExecutor(
+                threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "report-" + index.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        this.userThreads = Math.max(userThreads, 1);
+    }
+
+    public <T> List<T> execute(long userId, Collection<Long> deviceIds, DeviceTask<T> task) throws SQLException {
+        if (deviceIds.size() <= 1) {
+            List<T> result = new ArrayList<>();
+            for (long deviceId : deviceIds) {
+                result.add(task.compute(deviceId));
+            }
+            return result;
+        }
+
+        Semaphore permits = userPermits.computeIfAbsent(userId, key -> new Semaphore(userThreads));
+        List<Future<T>> futures = new ArrayList<>();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        try {
+            for (long deviceId : deviceIds) {
+                permits.acquire();
+                try {
+                    futures.add(executor.submit(() -> {
+                        try {
+                            return cancelled.get() ? null : task.compute(deviceId);
+                        } finally {
+                            permits.release();
+                        }
+                    }));
+                } catch (RuntimeException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+            List<T> result = new ArrayList<>();
+            for (Future<T> future : futures) {
+                result.add(future.get());
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            cancelled.set(true);
+        }
+    }
+
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 - 2020 Anton Tananaev (anton@traccar.org)
+ * Copyright 2016 - 2021 Anton Tananaev (anton@traccar.org)
  * Copyright 2016 - 2017 Andrey Kunitsyn (andrey@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -29,11 +29,8 @@ import org.traccar.Context;
 import org.traccar.config.Keys;
 import org.traccar.database.DeviceManager;
 import org.traccar.database.IdentityManager;
-import org.traccar.handler.events.MotionEventHandler;
 import org.traccar.helper.UnitsConverter;
-import org.traccar.model.DeviceState;
 import org.traccar.model.Driver;
-import org.traccar.model.Event;
 import org.traccar.model.Position;
 import org.traccar.reports.model.BaseReport;
 import org.traccar.reports.model.StopReport;
@@ -48,9 +45,9 @@ import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 import java.util.TimeZone;
 
 public final class ReportUtils {
@@ -169,19 +166,7 @@ public final class ReportUtils {
         transformer.write();
     }
 
-    private static TripReport calculateTrip(
-            ArrayList<Position> positions, int startIndex, int endIndex, boolean ignoreOdometer) {
-
-        Position startTrip = positions.get(startIndex);
-        Position endTrip = positions.get(endIndex);
-
-        double speedMax = 0;
-        for (int i = startIndex; i <= endIndex; i++) {
-            double speed = positions.get(i).getSpeed();
-            if (speed > speedMax) {
-                speedMax = speed;
-            }
-        }
+    static TripReport calculateTrip(Position startTrip, Position endTrip, double speedMax, boolean ignoreOdometer) {
 
         TripReport trip = new TripReport();
 
@@ -236,11 +221,7 @@ public final class ReportUtils {
         return trip;
     }
 
-    private static StopReport calculateStop(
-            ArrayList<Position> positions, int startIndex, int endIndex, boolean ignoreOdometer) {
-
-        Position startStop = positions.get(startIndex);
-        Position endStop = positions.get(endIndex);
+    static StopReport calculateStop(Position startStop, Position endStop, boolean ignoreOdometer) {
 
         StopReport stop = new StopReport();
 
@@ -284,83 +265,28 @@ public final class ReportUtils {
 
     }
 
-    private static <T extends BaseReport> T calculateTripOrStop(
-            ArrayList<Position> positions, int startIndex, int endIndex, boolean ignoreOdometer, Class<T> reportClass) {
-
-        if (reportClass.equals(TripReport.class)) {
-            return (T) calculateTrip(positions, startIndex, endIndex, ignoreOdometer);
-        } else {
-            return (T) calculateStop(positions, startIndex, endIndex, ignoreOdometer);
-        }
-    }
-
-    private static boolean isMoving(ArrayList<Position> positions, int index, TripsConfig tripsConfig) {
-        if (tripsConfig.getMinimalNoDataDuration() > 0) {
-            boolean beforeGap = index < positions.size() - 1
-                    && positions.get(index + 1).getFixTime().getTime() - positions.get(index).getFixTime().getTime()
-                    >= tripsConfig.getMinimalNoDataDuration();
-            boolean afterGap = index > 0
-                    && positions.get(index).getFixTime().getTime() - positions.get(index - 1).getFixTime().getTime()
-                    >= tripsConfig.getMinimalNoDataDuration();
-            if (beforeGap || afterGap) {
-                return false;
-            }
-        }
-        if (positions.get(index).getAttributes().containsKey(Position.KEY_MOTION)
-                && positions.get(index).getAttributes().get(Position.KEY_MOTION) instanceof Boolean) {
-            return positions.get(index).getBoolean(Position.KEY_MOTION);
-        } else {
-            return positions.get(index).getSpeed() > tripsConfig.getSpeedThreshold();
-        }
+    public static <T extends BaseReport> Collection<T> detectTripsAndStops(
+            IdentityManager identityManager, DeviceManager deviceManager,
+            Collection<Position> positionCollection,
+            TripsConfig tripsConfig, boolean ignoreOdometer, Class<T> reportClass) {
+        return detectTripsAndStops(
+                identityManager, deviceManager, positionCollection.iterator(),
+                tripsConfig, ignoreOdometer, reportClass);
     }
 
     public static <T extends BaseReport> Collection<T> detectTripsAndStops(
             IdentityManager identityManager, DeviceManager deviceManager,
-            Collection<Position> positionCollection,
+            Iterator<Position> positions,
             TripsConfig tripsConfig, boolean ignoreOdometer, Class<T> reportClass) {
 
         Collection<T> result = new ArrayList<>();
 
-        ArrayList<Position> positions = new ArrayList<>(positionCollection);
-        if (!positions.isEmpty()) {
-            boolean trips = reportClass.equals(TripReport.class);
-            MotionEventHandler  motionHandler = new MotionEventHandler(identityManager, deviceManager, tripsConfig);
-            DeviceState deviceState = new DeviceState();
-            deviceState.setMotionState(isMoving(positions, 0, tripsConfig));
-            int startEventIndex = trips == deviceState.getMotionState() ? 0 : -1;
-            int startNoEventIndex = -1;
-            for (int i = 0; i < positions.size(); i++) {
-                Map<Event, Position> event = motionHandler.updateMotionState(deviceState, positions.get(i),
-                        isMoving(positions, i, tripsConfig));
-                if (startEventIndex == -1
-                        && (trips != deviceState.getMotionState() && deviceState.getMotionPosition() != null
-                        || trips == deviceState.getMotionState() && event != null)) {
-                    startEventIndex = i;
-                    startNoEventIndex = -1;
-                } else if (trips != deviceState.getMotionState() && startEventIndex != -1
-                        && deviceState.getMotionPosition() == null && event == null) {
-                    startEventIndex = -1;
-                }
-                if (startNoEventIndex == -1
-                        && (trips == deviceState.getMotionState() && deviceState.getMotionPosition() != null
-                        || trips != deviceState.getMotionState() && event != null)) {
-                    startNoEventIndex = i;
-                } else if (startNoEventIndex != -1 && deviceState.getMotionPosition() == null && event == null) {
-                    startNoEventIndex = -1;
-                }
-                if (startEventIndex != -1 && startNoEventIndex != -1 && event != null
-                        && trips != deviceState.getMotionState()) {
-                    result.add(calculateTripOrStop(positions, startEventIndex, startNoEventIndex,
-                            ignoreOdometer, reportClass));
-                    startEventIndex = -1;
-                }
-            }
-            if (startEventIndex != -1 && (startNoEventIndex != -1 || !trips)) {
-                result.add(calculateTripOrStop(positions, startEventIndex,
-                            startNoEventIndex != -1 ? startNoEventIndex : positions.size() - 1,
-                            ignoreOdometer, reportClass));
-            }
+        TripsAndStopsDetector<T> detector = new TripsAndStopsDetector<>(
+                identityManager, deviceManager, tripsConfig, ignoreOdometer, reportClass, result::add);
+        while (positions.hasNext()) {
+            detector.addPosition(positions.next());
         }
+        detector.finish();
 
         return result;
     }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 Anton Tananaev (anton@traccar.org)
+ * Copyright 2016 - 2021 Anton Tananaev (anton@traccar.org)
  * Copyright 2016 Andrey Kunitsyn (andrey@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -24,9 +24,11 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.stream.Stream;
 
 import org.apache.poi.ss.util.WorkbookUtil;
 import org.traccar.Context;
+import org.traccar.helper.StreamUtil;
 import org.traccar.model.Device;
 import org.traccar.model.Group;
 import org.traccar.model.Position;
@@ -37,15 +39,20 @@ public final class Route {
     private Route() {
     }
 
-    public static Collection<Position> getObjects(long userId, Collection<Long> deviceIds, Collection<Long> groupIds,
-            Date from, Date to) throws SQLException {
+    public static Stream<Position> getObjects(
+            long userId, Collection<Long> deviceIds, Collection<Long> groupIds, Date from, Date to) {
         ReportUtils.checkPeriodLimit(from, to);
-        ArrayList<Position> result = new ArrayList<>();
-        for (long deviceId: ReportUtils.getDeviceList(deviceIds, groupIds)) {
+        Collection<Long> devices = ReportUtils.getDeviceList(deviceIds, groupIds);
+        for (long deviceId: devices) {
             Context.getPermissionsManager().checkDevice(userId, deviceId);
-            result.addAll(Context.getDataManager().getPositions(deviceId, from, to));
         }
-        return result;
+        return StreamUtil.concat(devices, deviceId -> {
+            try {
+                return Context.getDataManager().getPositionsStream(deviceId, from, to);
+            } catch (SQLException error) {
+                throw new RuntimeException(error);
+            }
+        });
     }
 
     public static void getExcel(OutputStream outputStream,
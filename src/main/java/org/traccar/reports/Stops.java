@@ -1,5 +1,5 @@
 /*
- * Copyright 2017 Anton Tananaev (anton@traccar.org)
+ * Copyright 2017 - 2021 Anton Tananaev (anton@traccar.org)
  * Copyright 2017 Andrey Kunitsyn (andrey@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -25,6 +25,8 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.stream.Stream;
 
 import org.apache.poi.ss.util.WorkbookUtil;
 import org.traccar.Context;
@@ -33,6 +35,7 @@ import org.traccar.database.DeviceManager;
 import org.traccar.database.IdentityManager;
 import org.traccar.model.Device;
 import org.traccar.model.Group;
+import org.traccar.model.Position;
 import org.traccar.reports.model.DeviceReport;
 import org.traccar.reports.model.StopReport;
 
@@ -48,19 +51,25 @@ public final class Stops {
         IdentityManager identityManager = Main.getInjector().getInstance(IdentityManager.class);
         DeviceManager deviceManager = Main.getInjector().getInstance(DeviceManager.class);
 
-        return ReportUtils.detectTripsAndStops(
-                identityManager, deviceManager, Context.getDataManager().getPositions(deviceId, from, to),
-                Context.getTripsConfig(), ignoreOdometer, StopReport.class);
+        try (Stream<Position> positions = Context.getDataManager().getPositionsStream(deviceId, from, to)) {
+            return ReportUtils.detectTripsAndStops(
+                    identityManager, deviceManager, positions.iterator(),
+                    Context.getTripsConfig(), ignoreOdometer, StopReport.class);
+        }
     }
 
     public static Collection<StopReport> getObjects(
             long userId, Collection<Long> deviceIds, Collection<Long> groupIds,
             Date from, Date to) throws SQLException {
         ReportUtils.checkPeriodLimit(from, to);
-        ArrayList<StopReport> result = new ArrayList<>();
-        for (long deviceId: ReportUtils.getDeviceList(deviceIds, groupIds)) {
+        Collection<Long> devices = ReportUtils.getDeviceList(deviceIds, groupIds);
+        for (long deviceId: devices) {
             Context.getPermissionsManager().checkDevice(userId, deviceId);
-            result.addAll(detectStops(deviceId, from, to));
+        }
+        ArrayList<StopReport> result = new ArrayList<>();
+        for (Collection<StopReport> deviceResult : Context.getReportExecutor().execute(
+                userId, devices, deviceId -> detectStops(deviceId, from, to))) {
+            result.addAll(deviceResult);
         }
         return result;
     }
@@ -71,9 +80,14 @@ public final class Stops {
         ReportUtils.checkPeriodLimit(from, to);
         ArrayList<DeviceReport> devicesStops = new ArrayList<>();
         ArrayList<String> sheetNames = new ArrayList<>();
-        for (long deviceId: ReportUtils.getDeviceList(deviceIds, groupIds)) {
+        Collection<Long> devices = ReportUtils.getDeviceList(deviceIds, groupIds);
+        for (long deviceId: devices) {
             Context.getPermissionsManager().checkDevice(userId, deviceId);
-            Collection<StopReport> stops = detectStops(deviceId, from, to);
+        }
+        Iterator<Collection<StopReport>> results = Context.getReportExecutor().execute(
+                userId, devices, deviceId -> detectStops(deviceId, from, to)).iterator();
+        for (long deviceId: devices) {
+            Collection<StopReport> stops = results.next();
             DeviceReport deviceStops = new DeviceReport();
             Device device = Context.getIdentityManager().getById(deviceId);
             deviceStops.setDeviceName(device.getName());
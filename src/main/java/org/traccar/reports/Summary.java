@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 - 2020 Anton Tananaev (anton@traccar.org)
+ * Copyright 2016 - 2021 Anton Tananaev (anton@traccar.org)
  * Copyright 2016 Andrey Kunitsyn (andrey@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -25,6 +25,8 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.stream.Stream;
 
 import org.jxls.util.JxlsHelper;
 import org.traccar.Context;
@@ -37,22 +39,13 @@ public final class Summary {
     private Summary() {
     }
 
-    private static SummaryReport calculateSummaryResult(long deviceId, Collection<Position> positions) {
+    private static SummaryReport calculateSummaryResult(
+            long deviceId, Position firstPosition, Position previousPosition, double maxSpeed) {
         SummaryReport result = new SummaryReport();
         result.setDeviceId(deviceId);
         result.setDeviceName(Context.getIdentityManager().getById(deviceId).getName());
-        if (positions != null && !positions.isEmpty()) {
-            Position firstPosition = null;
-            Position previousPosition = null;
-            for (Position position : positions) {
-                if (firstPosition == null) {
-                    firstPosition = position;
-                }
-                previousPosition = position;
-                if (position.getSpeed() > result.getMaxSpeed()) {
-                    result.setMaxSpeed(position.getSpeed());
-                }
-            }
+        if (firstPosition != null) {
+            result.setMaxSpeed(maxSpeed);
             boolean ignoreOdometer = Context.getDeviceManager()
                     .lookupAttributeBoolean(deviceId, "report.ignoreOdometer", false, false, true);
             result.setDistance(ReportUtils.calculateDistance(firstPosition, previousPosition, !ignoreOdometer));
@@ -99,24 +92,37 @@ public final class Summary {
     private static Collection<SummaryReport> calculateSummaryResults(
             long userId, long deviceId, Date from, Date to, boolean daily) throws SQLException {
 
-        ArrayList<Position> positions = new ArrayList<>(Context.getDataManager().getPositions(deviceId, from, to));
-
         ArrayList<SummaryReport> results = new ArrayList<>();
-        if (daily && !positions.isEmpty()) {
-            int startIndex = 0;
-            int startDay = getDay(userId, positions.iterator().next().getFixTime());
-            for (int i = 0; i < positions.size(); i++) {
-                int currentDay = getDay(userId, positions.get(i).getFixTime());
-                if (currentDay != startDay) {
-                    results.add(calculateSummaryResult(deviceId, positions.subList(startIndex, i)));
-                    startIndex = i;
-                    startDay = currentDay;
+
+        Position firstPosition = null;
+        Position previousPosition = null;
+        double maxSpeed = 0;
+        int startDay = 0;
+        try (Stream<Position> positions = Context.getDataManager().getPositionsStream(deviceId, from, to)) {
+            Iterator<Position> iterator = positions.iterator();
+            while (iterator.hasNext()) {
+                Position position = iterator.next();
+                if (daily) {
+                    int currentDay = getDay(userId, position.getFixTime());
+                    if (firstPosition == null) {
+                        startDay = currentDay;
+                    } else if (currentDay != startDay) {
+                        results.add(calculateSummaryResult(deviceId, firstPosition, previousPosition, maxSpeed));
+                        firstPosition = null;
+                        maxSpeed = 0;
+                        startDay = currentDay;
+                    }
+                }
+                if (firstPosition == null) {
+                    firstPosition = position;
+                }
+                previousPosition = position;
+                if (position.getSpeed() > maxSpeed) {
+                    maxSpeed = position.getSpeed();
                 }
             }
-            results.add(calculateSummaryResult(deviceId, positions.subList(startIndex, positions.size())));
-        } else {
-            results.add(calculateSummaryResult(deviceId, positions));
         }
+        results.add(calculateSummaryResult(deviceId, firstPosition, previousPosition, maxSpeed));
 
         return results;
     }
@@ -124,10 +130,14 @@ public final class Summary {
     public static Collection<SummaryReport> getObjects(long userId, Collection<Long> deviceIds,
             Collection<Long> groupIds, Date from, Date to, boolean daily) throws SQLException {
         ReportUtils.checkPeriodLimit(from, to);
-        ArrayList<SummaryReport> result = new ArrayList<>();
-        for (long deviceId: ReportUtils.getDeviceList(deviceIds, groupIds)) {
+        Collection<Long> devices = ReportUtils.getDeviceList(deviceIds, groupIds);
+        for (long deviceId: devices) {
             Context.getPermissionsManager().checkDevice(userId, deviceId);
-            result.addAll(calculateSummaryResults(userId, deviceId, from, to, daily));
+        }
+        ArrayList<SummaryReport> result = new ArrayList<>();
+        for (Collection<SummaryReport> deviceResult : Context.getReportExecutor().execute(
+                userId, devices, deviceId -> calculateSummaryResults(userId, deviceId, from, to, daily))) {
+            result.addAll(deviceResult);
         }
         return result;
     }
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2021 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.reports;
+
+import org.traccar.database.DeviceManager;
+import org.traccar.database.IdentityManager;
+import org.traccar.handler.events.MotionEventHandler;
+import org.traccar.model.DeviceState;
+import org.traccar.model.Event;
+import org.traccar.model.Position;
+import org.traccar.reports.model.BaseReport;
+import org.traccar.reports.model.TripReport;
+import org.traccar.reports.model.TripsConfig;
+
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Incremental trips and stops detection. Positions of a single device are added one by one in chronological order
+ * and reports are emitted as soon as segments are closed. Only a constant amount of state is kept, so it can be used
+ * on top of a streamed position source.
+ */
+public class TripsAndStopsDetector<T extends BaseReport> {
+
+    private final TripsConfig tripsConfig;
+    private final boolean ignoreOdometer;
+    private final Consumer<T> consumer;
+
+    private final boolean trips;
+    private final MotionEventHandler motionHandler;
+    private final DeviceState deviceState = new DeviceState();
+
+    private Position previousPosition;
+    private Position currentPosition;
+    private boolean initialized;
+
+    private Position startPosition;
+    private Position endPosition;
+    private double maxSpeed;
+    private double endMaxSpeed;
+
+    public TripsAndStopsDetector(
+            IdentityManager identityManager, DeviceManager deviceManager, TripsConfig tripsConfig,
+            boolean ignoreOdometer, Class<T> reportClass, Consumer<T> consumer) {
+        this.tripsConfig = tripsConfig;
+        this.ignoreOdometer = ignoreOdometer;
+        this.consumer = consumer;
+        trips = reportClass.equals(TripReport.class);
+        motionHandler = new MotionEventHandler(identityManager, deviceManager, tripsConfig);
+    }
+
+    /**
+     * Add next position. Processing is delayed by one position, because motion state depends on the following one.
+     */
+    public void addPosition(Position position) {
+        if (currentPosition != null) {
+            process(position);
+        }
+        currentPosition = position;
+    }
+
+    /**
+     * Process remaining position and emit the last segment if it is still open.
+     */
+    public void finish() {
+        if (currentPosition != null) {
+            process(null);
+            if (startPosition != null && (endPosition != null || !trips)) {
+                if (endPosition != null) {
+                    emit(startPosition, endPosition, endMaxSpeed);
+                } else {
+                    emit(startPosition, previousPosition, maxSpeed);
+                }
+            }
+            startPosition = null;
+            currentPosition = null;
+        }
+    }
+
+    private boolean isMoving(Position nextPosition) {
+        if (tripsConfig.getMinimalNoDataDuration() > 0) {
+            long time = currentPosition.getFixTime().getTime();
+            boolean beforeGap = nextPosition != null
+                    && nextPosition.getFixTime().getTime() - time >= tripsConfig.getMinimalNoDataDuration();
+            boolean afterGap = previousPosition != null
+                    && time - previousPosition.getFixTime().getTime() >= tripsConfig.getMinimalNoDataDuration();
+            if (beforeGap || afterGap) {
+                return false;
+            }
+        }
+        if (currentPosition.getAttributes().get(Position.KEY_MOTION) instanceof Boolean) {
+            return currentPosition.getBoolean(Position.KEY_MOTION);
+        } else {
+            return currentPosition.getSpeed() > tripsConfig.getSpeedThreshold();
+        }
+    }
+
+    private void process(Position nextPosition) {
+        Position position = currentPosition;
+        boolean moving = isMoving(nextPosition);
+
+        if (!initialized) {
+            deviceState.setMotionState(moving);
+            if (trips == moving) {
+                startPosition = position;
+                maxSpeed = 0;
+            }
+            initialized = true;
+        }
+
+        Map<Event, Position> event = motionHandler.updateMotionState(deviceState, position, moving);
+
+        if (startPosition == null
+                && (trips != deviceState.getMotionState() && deviceState.getMotionPosition() != null
+                || trips == deviceState.getMotionState() && event != null)) {
+            startPosition = position;
+            endPosition = null;
+            maxSpeed = 0;
+        } else if (trips != deviceState.getMotionState() && startPosition != null
+                && deviceState.getMotionPosition() == null && event == null) {
+            startPosition = null;
+        }
+
+        if (position.getSpeed() > maxSpeed) {
+            maxSpeed = position.getSpeed();
+        }
+
+        if (endPosition == null
+                && (trips == deviceState.getMotionState() && deviceState.getMotionPosition() != null
+                || trips != deviceState.getMotionState() && event != null)) {
+            endPosition = position;
+            endMaxSpeed = maxSpeed;
+        } else if (endPosition != null && deviceState.getMotionPosition() == null && event == null) {
+            endPosition = null;
+        }
+
+        if (startPosition != null && endPosition != null && event != null
+                && trips != deviceState.getMotionState()) {
+            emit(startPosition, endPosition, endMaxSpeed);
+            startPosition = null;
+        }
+
+        previousPosition = position;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void emit(Position start, Position end, double segmentMaxSpeed) {
+        if (trips) {
+            consumer.accept((T) ReportUtils.calculateTrip(start, end, segmentMaxSpeed, ignoreOdometer));
+        } else {
+            consumer.accept((T) ReportUtils.calculateStop(start, end, ignoreOdometer));
+        }
+    }
+
+}
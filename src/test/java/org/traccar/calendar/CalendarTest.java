@@ -6,12 +6,15 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 import org.traccar.model.Calendar;
 
 import net.fortuna.ical4j.data.ParserException;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class CalendarTest {
@@ -56,4 +59,43 @@ public class CalendarTest {
         date = format.parse("2016-12-13 07:00:01+05");
         assertTrue(!calendar.checkMoment(date));
     }
+
+    @Test
+    public void testCalendarSchedule() throws IOException, ParserException {
+        String calendarString = "BEGIN:VCALENDAR\n" +
+                "PRODID:-//Mozilla.org/NONSGML Mozilla Calendar V1.1//EN\n" +
+                "VERSION:2.0\n" +
+                "BEGIN:VEVENT\n" +
+                "DTSTAMP:20161213T045242Z\n" +
+                "UID:9d000df0-6354-479d-a407-218dac62c7c9\n" +
+                "RRULE:FREQ=DAILY\n" +
+                "DTSTART:20161130T230000Z\n" +
+                "DTEND:20161201T070000Z\n" +
+                "END:VEVENT\n" +
+                "BEGIN:VEVENT\n" +
+                "DTSTAMP:20161213T045242Z\n" +
+                "UID:0c1b2d0a-0d5e-4b7e-9a52-5bd3c4c1a9f1\n" +
+                "RRULE:FREQ=WEEKLY\n" +
+                "DTSTART:20161201T060000Z\n" +
+                "DTEND:20161201T120000Z\n" +
+                "END:VEVENT\n" +
+                "END:VCALENDAR";
+        Calendar calendar = new Calendar();
+        calendar.setData(calendarString.getBytes());
+
+        long day = TimeUnit.DAYS.toMillis(1);
+        long hour = TimeUnit.HOURS.toMillis(1);
+        long second = TimeUnit.SECONDS.toMillis(1);
+        long today = System.currentTimeMillis() / day * day;
+
+        for (long start = today + day; start < today + 8 * day; start += day) {
+            assertFalse(calendar.checkMoment(new Date(start - hour - second)));
+            assertTrue(calendar.checkMoment(new Date(start - hour + second)));
+            assertTrue(calendar.checkMoment(new Date(start + 7 * hour - second)));
+            boolean weekly = (start - new Date(1480550400000L).getTime()) / day % 7 == 0;
+            assertEquals(weekly, calendar.checkMoment(new Date(start + 7 * hour + second)));
+            assertEquals(weekly, calendar.checkMoment(new Date(start + 12 * hour - second)));
+            assertFalse(calendar.checkMoment(new Date(start + 12 * hour + second)));
+        }
+    }
 }
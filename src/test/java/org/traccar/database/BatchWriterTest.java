@@ -0,0 +1,110 @@
+package org.traccar.database;
+
+import org.junit.Test;
+import org.traccar.model.BaseModel;
+import org.traccar.model.Position;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BatchWriterTest {
+
+    private static class TestStorage implements BatchWriter.Storage {
+
+        private final List<BaseModel> stored = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release;
+
+        TestStorage(boolean blocked) {
+            release = new CountDownLatch(blocked ? 1 : 0);
+        }
+
+        @Override
+        public void addObjects(List<BaseModel> objects) throws Exception {
+            started.countDown();
+            release.await();
+            stored.addAll(objects);
+        }
+
+        @Override
+        public void addObject(BaseModel object) {
+            stored.add(object);
+        }
+
+    }
+
+    private static Position createPosition(long deviceId) {
+        Position position = new Position();
+        position.setDeviceId(deviceId);
+        return position;
+    }
+
+    @Test
+    public void testCapacity() throws Exception {
+        TestStorage storage = new TestStorage(true);
+        BatchWriter writer = new BatchWriter(storage, "test", 1, 100, 10, 4);
+
+        assertTrue(writer.write(1, createPosition(1), () -> { }));
+        assertTrue(storage.started.await(1, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 8; i++) {
+            assertEquals(i >= 4, writer.isFull(1));
+            assertTrue(writer.write(1, createPosition(1), () -> { }));
+        }
+        assertTrue(writer.isFull(1));
+        assertFalse(writer.write(1, createPosition(1), () -> { }));
+
+        CountDownLatch resumed = new CountDownLatch(1);
+        writer.addResumeListener(resumed::countDown);
+        assertEquals(1, resumed.getCount());
+
+        storage.release.countDown();
+        assertTrue(resumed.await(1, TimeUnit.SECONDS));
+        assertFalse(writer.isFull(1));
+
+        writer.stop();
+        assertEquals(9, storage.stored.size());
+    }
+
+    @Test
+    public void testOrder() throws Exception {
+        TestStorage storage = new TestStorage(false);
+        BatchWriter writer = new BatchWriter(storage, "test", 3, 7, 10, 1000);
+
+        List<List<Integer>> callbacks = new ArrayList<>();
+        for (int key = 0; key < 5; key++) {
+            callbacks.add(Collections.synchronizedList(new ArrayList<>()));
+        }
+        AtomicBoolean stored = new AtomicBoolean(true);
+        for (int i = 0; i < 500; i++) {
+            int key = i % 5;
+            int index = i;
+            Position position = createPosition(key);
+            assertTrue(writer.write(key, position, () -> {
+                stored.compareAndSet(true, storage.stored.contains(position));
+                callbacks.get(key).add(index);
+            }));
+        }
+
+        writer.stop();
+
+        assertTrue(stored.get());
+        assertEquals(500, storage.stored.size());
+        for (int key = 0; key < 5; key++) {
+            List<Integer> indexes = callbacks.get(key);
+            assertEquals(100, indexes.size());
+            for (int i = 0; i < indexes.size(); i++) {
+                assertEquals(key + i * 5, (int) indexes.get(i));
+            }
+        }
+    }
+
+}
@@ -3,8 +3,10 @@ package org.traccar.geofence;
 import java.text.ParseException;
 
 import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class GeofenceCircleTest {
@@ -25,4 +27,14 @@ public class GeofenceCircleTest {
         assertTrue(geofenceGeometry.containsPoint(55.75477, 37.62025));
         assertTrue(!geofenceGeometry.containsPoint(55.75545, 37.61921));
     }
+
+    @Test
+    public void testCircleEnvelope() throws ParseException {
+        GeofenceGeometry geofenceGeometry = new GeofenceCircle("CIRCLE (55.75414 37.6204, 100)");
+        Envelope envelope = geofenceGeometry.getEnvelope();
+        assertTrue(envelope.contains(37.62025, 55.75477));
+        assertTrue(envelope.contains(37.6204, 55.75503));
+        assertFalse(envelope.contains(37.6204, 55.75545));
+        assertFalse(envelope.contains(37.6180, 55.75414));
+    }
 }
@@ -1,8 +1,10 @@
 package org.traccar.geofence;
 
 import java.text.ParseException;
+import java.util.Locale;
 
 import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -56,4 +58,140 @@ public class GeofencePolygonTest {
 
     }
 
+    private static double[][] createStar(int count, double latitude, double longitude) {
+        double[][] points = new double[count][2];
+        for (int i = 0; i < count; i++) {
+            double angle = 2 * Math.PI * i / count;
+            double radius = 1 + 0.4 * Math.sin(7 * angle);
+            points[i][0] = Math.round((latitude + radius * Math.sin(angle)) * 10000) / 10000.0;
+            double lon = Math.round((longitude + radius * Math.cos(angle)) * 10000) / 10000.0;
+            points[i][1] = lon > 180 ? lon - 360 : lon;
+        }
+        return points;
+    }
+
+    private static String toWkt(double[][] points) {
+        StringBuilder wkt = new StringBuilder("POLYGON ((");
+        for (int i = 0; i < points.length; i++) {
+            if (i > 0) {
+                wkt.append(", ");
+            }
+            wkt.append(String.format(Locale.US, "%.4f %.4f", points[i][0], points[i][1]));
+        }
+        return wkt.append("))").toString();
+    }
+
+    /**
+     * Plain ray casting over all edges, same as the implementation without edge index.
+     */
+    private static boolean containsReference(double[][] points, double latitude, double longitude) {
+        boolean hasNegative = false;
+        boolean hasPositive = false;
+        for (double[] point : points) {
+            hasPositive |= point[1] > 90;
+            hasNegative |= point[1] < -90;
+        }
+        boolean normalize = hasPositive && hasNegative;
+        double[] lats = new double[points.length];
+        double[] lons = new double[points.length];
+        for (int i = 0; i < points.length; i++) {
+            lats[i] = points[i][0];
+            lons[i] = normalize && points[i][1] < -90 ? points[i][1] + 360 : points[i][1];
+        }
+        double lon = normalize && longitude < -90 ? longitude + 360 : longitude;
+        boolean oddNodes = false;
+        for (int i = 0, j = points.length - 1; i < points.length; j = i++) {
+            if (lons[i] < lon && lons[j] >= lon || lons[j] < lon && lons[i] >= lon) {
+                double constant;
+                double multiple;
+                if (lons[j] == lons[i]) {
+                    constant = lats[i];
+                    multiple = 0;
+                } else {
+                    constant = lats[i] - (lons[i] * lats[j]) / (lons[j] - lons[i])
+                            + (lons[i] * lats[i]) / (lons[j] - lons[i]);
+                    multiple = (lats[j] - lats[i]) / (lons[j] - lons[i]);
+                }
+                oddNodes ^= lon * multiple + constant < latitude;
+            }
+        }
+        return oddNodes;
+    }
+
+    @Test
+    public void testContainsLargePolygon() throws ParseException {
+        double[][] points = createStar(512, 10, 20);
+        GeofencePolygon geofence = new GeofencePolygon(toWkt(points));
+
+        // points outside of the envelope are rejected even if rounding makes ray casting count them as inside
+        Envelope envelope = geofence.getEnvelope();
+        double stripeWidth = (envelope.getMaxX() - envelope.getMinX()) / (points.length / 8);
+        for (int stripe = -2; stripe <= points.length / 8 + 2; stripe++) {
+            double longitude = envelope.getMinX() + stripe * stripeWidth;
+            for (double latitude = 8.5; latitude <= 11.5; latitude += 0.01) {
+                boolean expected = envelope.contains(longitude, latitude) && containsReference(points, latitude, longitude);
+                assertEquals(expected, geofence.containsPoint(latitude, longitude));
+            }
+        }
+        for (double[] point : points) {
+            for (int offset = -1; offset <= 1; offset++) {
+                double latitude = point[0] + offset * 0.001;
+                boolean expected = envelope.contains(point[1], latitude)
+                        && containsReference(points, latitude, point[1]);
+                assertEquals(expected, geofence.containsPoint(latitude, point[1]));
+            }
+        }
+
+        assertTrue(geofence.containsPoint(10, 20));
+        assertFalse(geofence.containsPoint(envelope.getMaxY() + 0.001, 20));
+        assertFalse(geofence.containsPoint(envelope.getMinY() - 0.001, 20));
+        assertFalse(geofence.containsPoint(10, envelope.getMaxX() + 0.001));
+        assertFalse(geofence.containsPoint(10, envelope.getMinX() - 0.001));
+    }
+
+    @Test
+    public void testContainsLargePolygon180() throws ParseException {
+        double[][] points = createStar(512, 60, 180);
+        GeofencePolygon geofence = new GeofencePolygon(toWkt(points));
+
+        assertTrue(geofence.containsPoint(60, 179.9));
+        assertTrue(geofence.containsPoint(60, -179.9));
+        assertTrue(geofence.containsPoint(60, 180));
+        assertFalse(geofence.containsPoint(60, 177));
+        assertFalse(geofence.containsPoint(60, -177));
+        assertFalse(geofence.containsPoint(60, 0));
+
+        for (double longitude = 177.5; longitude <= 182.5; longitude += 0.01) {
+            double wrapped = longitude > 180 ? longitude - 360 : longitude;
+            for (double latitude = 58.5; latitude <= 61.5; latitude += 0.05) {
+                assertEquals(containsReference(points, latitude, wrapped), geofence.containsPoint(latitude, wrapped));
+            }
+        }
+    }
+
+    @Test
+    public void testEnvelope() throws ParseException {
+        Envelope envelope = new GeofencePolygon(
+                "POLYGON ((55.75474 37.61823, 55.75513 37.61888, 55.7535 37.6222, 55.75315 37.62165))").getEnvelope();
+        assertEquals(37.61823, envelope.getMinX(), 0);
+        assertEquals(37.6222, envelope.getMaxX(), 0);
+        assertEquals(55.75315, envelope.getMinY(), 0);
+        assertEquals(55.75513, envelope.getMaxY(), 0);
+
+        envelope = new GeofencePolygon(
+                "POLYGON ((66.9494 179.838, 66.9508 -179.8496, 66.8406 -180.0014))").getEnvelope();
+        assertEquals(-180, envelope.getMinX(), 0);
+        assertEquals(180, envelope.getMaxX(), 0);
+        assertEquals(66.8406, envelope.getMinY(), 0);
+        assertEquals(66.9508, envelope.getMaxY(), 0);
+
+        double[][] points = createStar(512, 10, 20);
+        envelope = new GeofencePolygon(toWkt(points)).getEnvelope();
+        for (double[] point : points) {
+            assertTrue(envelope.contains(point[1], point[0]));
+        }
+        assertEquals(18.6, envelope.getMinX(), 0.1);
+        assertEquals(21.4, envelope.getMaxX(), 0.1);
+    }
+
 }
@@ -3,6 +3,7 @@ package org.traccar.geofence;
 import java.text.ParseException;
 
 import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -44,4 +45,13 @@ public class GeofencePolylineTest {
         assertTrue(!geofenceGeometry.containsPoint(66.96, 180.0));
         assertTrue(!geofenceGeometry.containsPoint(66.9509, -179.83));
     }
+
+    @Test
+    public void testPolylineEnvelopeNear180() throws ParseException {
+        String test = "LINESTRING (66.9494 179.838, 66.9508 -179.8496)";
+        Envelope envelope = new GeofencePolyline(test, 25).getEnvelope();
+        assertTrue(envelope.contains(180.0, 66.95));
+        assertTrue(envelope.contains(-180.0, 66.95));
+        assertTrue(!envelope.contains(180.0, 67.0));
+    }
 }
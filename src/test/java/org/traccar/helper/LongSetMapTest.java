@@ -0,0 +1,119 @@
+package org.traccar.helper;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LongSetMapTest {
+
+    @Test
+    public void testBuild() {
+        LongSetMap map = new LongSetMap.Builder()
+                .add(1, 3).add(1, 2).add(1, 3)
+                .add(-5, 0)
+                .addAll(7, LongSet.of(9, 8))
+                .addAll(8, LongSet.EMPTY)
+                .build();
+
+        assertEquals(3, map.size());
+        assertEquals(LongSet.of(2, 3), map.get(1));
+        assertTrue(map.get(-5).contains(0L));
+        assertTrue(map.get(7).contains(9));
+        assertFalse(map.containsKey(8));
+        assertSame(LongSet.EMPTY, map.get(100));
+    }
+
+    @Test
+    public void testWith() {
+        LongSetMap map = new LongSetMap.Builder().add(1, 1).add(2, 2).build();
+
+        LongSetMap updated = map.with(1, LongSet.EMPTY).with(3, LongSet.of(3));
+        for (long key = 4; key < 100; key++) {
+            updated = updated.with(key, LongSet.of(key));
+        }
+
+        assertEquals(2, map.size());
+        assertTrue(map.containsKey(1));
+        assertEquals(98, updated.size());
+        assertFalse(updated.containsKey(1));
+        assertEquals(LongSet.of(2), updated.get(2));
+        assertEquals(LongSet.of(99), updated.get(99));
+    }
+
+    @Test
+    public void testCapacity() {
+        int devices = 200000;
+        int users = 5000;
+        int devicesPerUser = 80;
+
+        LongSetMap.Builder builder = new LongSetMap.Builder();
+        for (long userId = 1; userId <= users; userId++) {
+            for (int i = 0; i < devicesPerUser; i++) {
+                builder.add(userId, 1 + (userId * 997 + i * 7919) % devices);
+            }
+        }
+        LongSetMap devicePermissions = builder.build();
+
+        LongSetMap.Builder inverseBuilder = new LongSetMap.Builder();
+        devicePermissions.forEach((userId, deviceIds) -> deviceIds.forEachLong(
+                deviceId -> inverseBuilder.add(deviceId, userId)));
+        LongSetMap deviceUsers = inverseBuilder.build();
+
+        assertEquals(users, devicePermissions.size());
+        assertTrue(deviceUsers.size() > devices / 2);
+
+        for (LongSetMap map : new LongSetMap[] {devicePermissions, deviceUsers}) {
+            assertTrue(map.capacity() >= map.size() * 2);
+            assertTrue(map.capacity() < map.size() * 4);
+        }
+
+        LongSetMap updated = deviceUsers.with(devices + 1, LongSet.of(1));
+        assertTrue(updated.capacity() >= updated.size() * 2);
+        assertTrue(updated.capacity() < updated.size() * 4);
+    }
+
+    private static long countElements(LongSetMap map) {
+        AtomicLong count = new AtomicLong();
+        map.forEach((key, values) -> count.addAndGet(values.size()));
+        return count.get();
+    }
+
+    @Test
+    public void testFootprint() {
+        int devices = 200000;
+        int users = 5000;
+        int devicesPerUser = 80;
+
+        LongSetMap.Builder builder = new LongSetMap.Builder();
+        for (long userId = 1; userId <= users; userId++) {
+            for (int i = 0; i < devicesPerUser; i++) {
+                builder.add(userId, 1 + (userId * 997 + i * 7919) % devices);
+            }
+        }
+        LongSetMap devicePermissions = builder.build();
+
+        LongSetMap.Builder inverseBuilder = new LongSetMap.Builder();
+        devicePermissions.forEach((userId, deviceIds) -> deviceIds.forEachLong(
+                deviceId -> inverseBuilder.add(deviceId, userId)));
+        LongSetMap deviceUsers = inverseBuilder.build();
+
+        long elements = (long) users * devicesPerUser;
+        assertEquals(elements, countElements(devicePermissions));
+        assertEquals(elements, countElements(deviceUsers));
+
+        for (LongSetMap map : new LongSetMap[] {devicePermissions, deviceUsers}) {
+            // builder spare capacity is trimmed, so only table slots are added on top of the elements
+            assertEquals(map.capacity() * 2L + elements, map.footprint());
+            assertTrue(map.footprint() < map.size() * 8L + elements);
+        }
+
+        LongSetMap updated = deviceUsers.with(devices + 1, LongSet.of(1)).with(1, LongSet.EMPTY);
+        assertEquals(updated.capacity() * 2L + countElements(updated), updated.footprint());
+    }
+
+}
@@ -0,0 +1,58 @@
+package org.traccar.helper;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StreamUtilTest {
+
+    @Test
+    public void testConcat() {
+
+        AtomicInteger open = new AtomicInteger();
+        AtomicInteger pulled = new AtomicInteger();
+
+        Stream<Integer> stream = StreamUtil.concat(Arrays.asList(0, 1, 2), key -> {
+            assertEquals(0, open.getAndIncrement());
+            return IntStream.range(key * 1000, key * 1000 + 1000).boxed()
+                    .peek(value -> pulled.incrementAndGet())
+                    .onClose(open::decrementAndGet);
+        });
+
+        Iterator<Integer> iterator = stream.iterator();
+        for (int i = 0; i < 3000; i++) {
+            assertTrue(iterator.hasNext());
+            assertEquals(i, (int) iterator.next());
+            assertEquals(1, open.get());
+            assertEquals(i + 1, pulled.get());
+        }
+        assertFalse(iterator.hasNext());
+        assertEquals(0, open.get());
+
+    }
+
+    @Test
+    public void testConcatClose() {
+
+        AtomicInteger open = new AtomicInteger();
+
+        try (Stream<Integer> stream = StreamUtil.concat(Arrays.asList(0, 1), key -> {
+            open.incrementAndGet();
+            return Stream.of(1, 2, 3).onClose(open::decrementAndGet);
+        })) {
+            assertEquals(1, (int) stream.iterator().next());
+            assertEquals(1, open.get());
+        }
+        assertEquals(0, open.get());
+
+    }
+
+}
@@ -0,0 +1,50 @@
+package org.traccar.notification;
+
+import org.junit.Test;
+import org.traccar.model.Event;
+import org.traccar.model.Position;
+import org.traccar.notificators.Notificator;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class NotificationDispatcherTest {
+
+    @Test
+    public void testBoundedQueue() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+
+        Notificator notificator = new Notificator() {
+            @Override
+            public void sendSync(long userId, Event event, Position position)
+                    throws MessageException, InterruptedException {
+                release.await();
+                if (calls.incrementAndGet() == 3) {
+                    throw new MessageException("test");
+                }
+            }
+        };
+
+        NotificationDispatcher dispatcher = new NotificationDispatcher(
+                "test", notificator, 1, 2, NotificationDispatcher.OVERFLOW_DROP);
+
+        for (int i = 0; i < 10; i++) {
+            dispatcher.sendAsync(1, new Event("test", 1), null);
+        }
+
+        assertEquals(7, dispatcher.getRejected());
+
+        release.countDown();
+        for (int i = 0; i < 500 && dispatcher.getSent() + dispatcher.getFailed() < 3; i++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(3, calls.get());
+        assertEquals(2, dispatcher.getSent());
+        assertEquals(1, dispatcher.getFailed());
+    }
+
+}